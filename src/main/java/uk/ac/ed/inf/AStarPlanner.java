@@ -0,0 +1,383 @@
+package uk.ac.ed.inf;
+
+import java.util.Arrays;
+import java.util.Stack;
+
+/**
+ * A* path planner that keeps its whole search state in preallocated primitive arrays (a struct
+ * of arrays, one slot per node) instead of Node and LongLat objects. The arrays grow by doubling
+ * and are kept between calls, so once they are big enough a search allocates nothing but the
+ * returned Stack of angles.
+ * Nodes are looked up by their position with a spatial hash whose cells are as wide as the
+ * veryCloseThreshold, and the open nodes are kept in an indexed binary heap so a cheaper path
+ * to an open node replaces it in O(log n)
+ */
+public class AStarPlanner {
+    /** state of a node that is in the open set */
+    static final byte OPEN = 1;
+    /** state of a node whose children are all added to the open set or disqualified */
+    static final byte CLOSED = 2;
+    /** state of a node replaced by an equal node with a cheaper path */
+    private static final byte REPLACED = 3;
+
+    /** the map holding the no-fly zones to avoid */
+    private final Map map;
+
+    /** longitude of each node */
+    private double[] lng;
+    /** latitude of each node */
+    private double[] lat;
+    /** index of the parent of each node, -1 for the root */
+    private int[] parent;
+    /** the angle to take to go from the parent to each node */
+    private int[] angle;
+    /** the moves taken to reach each node */
+    private float[] g;
+    /** the moves taken plus the heuristic of each node */
+    private float[] f;
+    /** whether a node is open, closed or replaced */
+    private byte[] state;
+    /** the position of each open node in the heap */
+    private int[] heapIndex;
+    /** the next node in the same cell of the spatial hash, -1 at the end of the chain */
+    private int[] nextInCell;
+    /** number of nodes created by the current search */
+    private int count;
+
+    /** the open nodes in heap order, heap[0] has the smallest f */
+    private int[] heap;
+    /** number of nodes in the heap */
+    private int heapSize;
+
+    /** the cell key stored in each slot of the spatial hash */
+    private long[] cellKeys;
+    /** the first node of the chain of each slot of the spatial hash */
+    private int[] cellHeads;
+    /** the search a slot of the spatial hash was last used by, older slots count as empty */
+    private int[] cellStamps;
+    /** number of cells used by the current search */
+    private int cellCount;
+    /** the id of the current search, used to empty the spatial hash without clearing it */
+    private int search;
+    /** number of nodes expanded by the last search */
+    private int expansions;
+
+    /**
+     * construct a planner avoiding the no-fly zones of a map
+     * @param map the map storing the no-fly zones
+     */
+    public AStarPlanner(Map map) {
+        this.map = map;
+        growNodes(1024);
+        heap = new int[1024];
+        cellKeys = new long[2048];
+        cellHeads = new int[2048];
+        cellStamps = new int[2048];
+    }
+
+    /**
+     * plan the path from a start position to a target with A*
+     * @param start the position of the drone
+     * @param target the LongLat coordinate of the location to reach
+     * @return the angles representing the planned path with the first move on top, null if no path is found
+     */
+    public Stack<Integer> plan(LongLat start, LongLat target) {
+        reset();
+        int root = addNode(start.lng, start.lat, -1, 0, 0, (float) start.distanceTo(target));
+        push(root);
+        // the node close enough to the target
+        int solution = -1;
+
+        while (heapSize > 0) {
+            int best = poll();
+            double bestLng = lng[best];
+            double bestLat = lat[best];
+            if (distance(bestLng, bestLat, target.lng, target.lat) < LongLat.threshold) {
+                solution = best;
+                break;
+            }
+            expansions ++;
+
+            // drone can only move in angles with 10 degree of precision
+            for (int i = 0; i <= 350; i += 10) {
+                double nextLng = bestLng + LongLat.stepLng(i);
+                double nextLat = bestLat + LongLat.stepLat(i);
+                // if the next location is outside confinement area or the path there intersect
+                // with no-fly zone, it's not added to the open set
+                if (map.intersectNFZ(bestLng, bestLat, nextLng, nextLat)) continue;
+                float childG = g[best] + 1;
+                float childF = (float) (childG * LongLat.distance + distance(nextLng, nextLat, target.lng, target.lat));
+
+                int same = find(nextLng, nextLat, CLOSED);
+                if (same == -1) {
+                    int open = find(nextLng, nextLat, OPEN);
+                    // if a node has never been visited before
+                    if (open == -1) {
+                        push(addNode(nextLng, nextLat, best, i, childG, childF));
+                    } else if (g[open] > childG) {
+                        // a way to reach an open node in fewer moves is found, the child takes its place in the heap
+                        int child = addNode(nextLng, nextLat, best, i, childG, childF);
+                        replace(open, child);
+                    }
+                } else if (g[same] > childG) {
+                    // a closed node is reopened only if it is reached in fewer moves, like an open node
+                    state[same] = REPLACED;
+                    push(addNode(nextLng, nextLat, best, i, childG, childF));
+                }
+            }
+
+            state[best] = CLOSED;
+        }
+
+        if (solution == -1) {
+            System.err.println("A star didn't find a solution");
+            return null;
+        }
+
+        Stack<Integer> aStar = new Stack<>();
+        while (parent[solution] != -1) {
+            aStar.push(angle[solution]);
+            solution = parent[solution];
+        }
+        return aStar;
+    }
+
+    /**
+     * get the number of nodes expanded by the last search
+     * @return the number of expanded nodes
+     */
+    public int getExpansions() {
+        return expansions;
+    }
+
+    /**
+     * get the number of node slots the planner currently has room for
+     * @return the capacity of the node arrays
+     */
+    public int getCapacity() {
+        return lng.length;
+    }
+
+    //----------------------------------- nodes and spatial hash -----------------------------------//
+    // reset, addNode, find, push, poll and replace are package-private so the tests can check the
+    // spatial hash and the heap on their own
+
+    /**
+     * start a new search, the arrays are kept and the spatial hash is emptied by moving on to a new stamp
+     */
+    void reset() {
+        count = 0;
+        heapSize = 0;
+        cellCount = 0;
+        expansions = 0;
+        search ++;
+        if (search == 0) {
+            // the stamps wrapped around, clear them so no slot looks used by the new search
+            Arrays.fill(cellStamps, 0);
+            search = 1;
+        }
+    }
+
+    /**
+     * create a new open node and add it to the spatial hash, growing the arrays if they are full
+     * @return the index of the new node
+     */
+    int addNode(double nodeLng, double nodeLat, int nodeParent, int nodeAngle, float nodeG, float nodeF) {
+        if (count == lng.length) growNodes(count * 2);
+        int node = count ++;
+        lng[node] = nodeLng;
+        lat[node] = nodeLat;
+        parent[node] = nodeParent;
+        angle[node] = nodeAngle;
+        g[node] = nodeG;
+        f[node] = nodeF;
+        state[node] = OPEN;
+
+        if ((cellCount + 1) * 2 > cellKeys.length) growCells();
+        int slot = slotOf(cellKey(cellOf(nodeLng), cellOf(nodeLat)));
+        nextInCell[node] = cellStamps[slot] == search ? cellHeads[slot] : -1;
+        if (cellStamps[slot] != search) cellCount ++;
+        cellStamps[slot] = search;
+        cellHeads[slot] = node;
+        return node;
+    }
+
+    /**
+     * find a node in the given state that is very close to a position, two positions that are very close
+     * can only be in the same or neighbouring cells so only 9 cells are checked
+     * @return the index of the first matching node, -1 if there isn't one
+     */
+    int find(double x, double y, byte wanted) {
+        long cx = cellOf(x);
+        long cy = cellOf(y);
+        double limit = LongLat.veryCloseThreshold * LongLat.veryCloseThreshold;
+        for (long i = cx - 1; i <= cx + 1; i ++) {
+            for (long j = cy - 1; j <= cy + 1; j ++) {
+                int slot = slotOf(cellKey(i, j));
+                if (cellStamps[slot] != search) continue;
+                for (int node = cellHeads[slot]; node != -1; node = nextInCell[node]) {
+                    if (state[node] != wanted) continue;
+                    double dx = lng[node] - x;
+                    double dy = lat[node] - y;
+                    if (dx * dx + dy * dy < limit) return node;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * find the slot of a cell in the open addressing spatial hash
+     * @param key the key of the cell
+     * @return the slot holding the cell, or the empty slot it should be put in
+     */
+    private int slotOf(long key) {
+        int mask = cellKeys.length - 1;
+        int slot = (int) (mix(key) & mask);
+        while (cellStamps[slot] == search && cellKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        cellKeys[slot] = key;
+        return slot;
+    }
+
+    /**
+     * double the size of the spatial hash and put the cells used by the current search back in
+     */
+    private void growCells() {
+        long[] oldKeys = cellKeys;
+        int[] oldHeads = cellHeads;
+        int[] oldStamps = cellStamps;
+        cellKeys = new long[oldKeys.length * 2];
+        cellHeads = new int[oldKeys.length * 2];
+        cellStamps = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i ++) {
+            if (oldStamps[i] != search) continue;
+            int slot = slotOf(oldKeys[i]);
+            cellStamps[slot] = search;
+            cellHeads[slot] = oldHeads[i];
+        }
+    }
+
+    /**
+     * grow the node arrays to a new capacity, keeping the nodes already created
+     */
+    private void growNodes(int capacity) {
+        lng = lng == null ? new double[capacity] : Arrays.copyOf(lng, capacity);
+        lat = lat == null ? new double[capacity] : Arrays.copyOf(lat, capacity);
+        parent = parent == null ? new int[capacity] : Arrays.copyOf(parent, capacity);
+        angle = angle == null ? new int[capacity] : Arrays.copyOf(angle, capacity);
+        g = g == null ? new float[capacity] : Arrays.copyOf(g, capacity);
+        f = f == null ? new float[capacity] : Arrays.copyOf(f, capacity);
+        state = state == null ? new byte[capacity] : Arrays.copyOf(state, capacity);
+        heapIndex = heapIndex == null ? new int[capacity] : Arrays.copyOf(heapIndex, capacity);
+        nextInCell = nextInCell == null ? new int[capacity] : Arrays.copyOf(nextInCell, capacity);
+    }
+
+    /**
+     * get the index of the cell a coordinate falls into along one axis
+     */
+    private static long cellOf(double coordinate) {
+        return (long) Math.floor(coordinate / LongLat.veryCloseThreshold);
+    }
+
+    /**
+     * pack the two cell indices of a position into one key
+     */
+    private static long cellKey(long x, long y) {
+        return (x << 32) ^ (y & 0xffffffffL);
+    }
+
+    /**
+     * spread the bits of a cell key so neighbouring cells don't fall into neighbouring slots
+     */
+    private static long mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return key ^ (key >>> 32);
+    }
+
+    /**
+     * euclidean distance between two positions in degrees
+     */
+    private static double distance(double lng1, double lat1, double lng2, double lat2) {
+        double dx = lng2 - lng1;
+        double dy = lat2 - lat1;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    //----------------------------------------- indexed heap -----------------------------------------//
+
+    /**
+     * add an open node to the heap
+     */
+    void push(int node) {
+        if (heapSize == heap.length) heap = Arrays.copyOf(heap, heapSize * 2);
+        heap[heapSize] = node;
+        heapIndex[node] = heapSize;
+        heapSize ++;
+        siftUp(heapSize - 1);
+    }
+
+    /**
+     * remove and return the open node with the smallest f
+     */
+    int poll() {
+        int best = heap[0];
+        heapSize --;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapIndex[heap[0]] = 0;
+            siftDown(0);
+        }
+        return best;
+    }
+
+    /**
+     * put a cheaper node in the heap slot of an equal open node and move it to its new place
+     */
+    void replace(int open, int better) {
+        int i = heapIndex[open];
+        state[open] = REPLACED;
+        heap[i] = better;
+        heapIndex[better] = i;
+        siftUp(i);
+        siftDown(heapIndex[better]);
+    }
+
+    /**
+     * move the node at heap index i up until its parent has a smaller or equal f
+     */
+    private void siftUp(int i) {
+        int node = heap[i];
+        float key = f[node];
+        while (i > 0) {
+            int up = (i - 1) >>> 1;
+            if (f[heap[up]] <= key) break;
+            heap[i] = heap[up];
+            heapIndex[heap[i]] = i;
+            i = up;
+        }
+        heap[i] = node;
+        heapIndex[node] = i;
+    }
+
+    /**
+     * move the node at heap index i down until both its children have a greater or equal f
+     */
+    private void siftDown(int i) {
+        int node = heap[i];
+        float key = f[node];
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < heapSize && f[heap[right]] < f[heap[child]]) child = right;
+            if (key <= f[heap[child]]) break;
+            heap[i] = heap[child];
+            heapIndex[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = node;
+        heapIndex[node] = i;
+    }
+}
@@ -1,34 +1,22 @@
 package uk.ac.ed.inf;
 
-import com.mapbox.geojson.*;
-import com.mapbox.geojson.Polygon;
-
-import java.util.*;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.List;
 
 /**
  * The lunch delivery drone control system
  */
 public class App 
 {
-    /** GeoJsonUtils services*/
-    private static GeoJsonUtils geoJsonUtils;
-    /** DatabaseUtils services */
-    private static DatabaseUtils databaseUtils;
-    /** W3WUtils services */
-    private static W3WUtils wUtils;
-    /** create a menus object for calculating delivery cost and information about the shops */
-    private static Menus menus;
-    /** onboard system of the drone that controls its movement */
-    private static Drone drone;
-    /** the list of Orders ordered by their delivery cost, from highest to lowest */
-    private static final Queue<Order> orders = new PriorityQueue<>(Collections.reverseOrder());
-
     public static void main( String[] args)
     {
         // calculating the runtime of the system
         long startTime = System.nanoTime();
-        if (args.length != 5) {
+        if (args.length != 5 && args.length != 6) {
             System.err.println("You should enter 5 arguments: day, month, year, webserver port and database port!");
+            System.err.println("Add \"offline\" as 6th argument to use the cached files without the web server");
         }
         // fetch the commandline arguments and store them in variables
         String day = String.format("%02d", Integer.parseInt(args[0]));
@@ -36,182 +24,66 @@ public class App
         String year = args[2];
         String port = args[3];
         String dbPort = args[4];
+        boolean offline = args.length > 5 && args[5].equals("offline");
 
         // date of the orders to retrieve, use the same YYYY-MM-DD format as the database
         String date = String.join("-", year, month, day);
         System.out.println(date);
         // name of the server for connection
         String name = "localhost";
-        // name of the output geojson file storing the path
-        String outputFile = "../" + String.join("-", "drone", day, month, year) + ".geojson";
-        // name of the output file if the software failed to produce a complete path
-        String outputFileFailed = "../" + String.join("-", "drone", day, month, year) + "failed" + ".geojson";
 
-        // connect menus to the server
-        menus = new Menus(name, port);
-        // start the GeoJsonUtils, DatabaseUtils and W3WUtils services
-        geoJsonUtils = new GeoJsonUtils(name, port);
-        databaseUtils = new DatabaseUtils(name, dbPort, "derbyDB");
-        wUtils = new W3WUtils(name, port);
-
-        // initialize the Drone at appleton tower with fully initialized map and dbUtil to
-        // record the path for A star
-        drone = new Drone(LongLat.AT, "Appleton Tower", databaseUtils);
+        // keep the files of the web server, so later runs only ask whether they changed
+        HttpCache httpCache = null;
+        try {
+            httpCache = new HttpCache(Paths.get("..", "http-cache"), offline);
+            ServerUtils.setCache(httpCache);
+        } catch (IOException ex) {
+            System.err.println("Cannot create the http cache, reading everything from the web server");
+        }
 
+        // start the DatabaseUtils and W3WUtils services
+        DatabaseUtils databaseUtils = new DatabaseUtils(name, dbPort, "derbyDB");
+        W3WUtils wUtils = new W3WUtils(name, port, Paths.get("..", "w3w-cache.txt"));
+        System.out.printf("loaded %d w3w addresses from the cache in %.1f ms\n", wUtils.getCacheSize(), wUtils.getLoadTime());
 
-        // get the no-fly zones from website and store them in the drone
-        if (!getNoFlyZones()) {
-            System.err.println("Cannot get the information about no fly zones");;
+        // fetch the menus, no-fly zones, landmarks, orders and their w3w addresses all at once
+        long loadStart = System.nanoTime();
+        StartupLoader loader = new StartupLoader(name, port, wUtils);
+        if (!loader.load(() -> databaseUtils.retrieveOrdersWithItems(date))) {
+            System.err.println("Cannot load the information needed to plan the deliveries");
             return;
         }
-        // get all the landmarks from website and add them to locations known by the drone
-        if (!getLandmarks()) {
-            System.err.println("Cannot get the information about landmarks");;
-            return;
-        }
-        // get the information about all the shops that need to be visited for this order and add them to locations known by the drone
-        if (!getShopsInfo()) {
-            System.err.println("Cannot get the information about shops");;
-            return;
-        }
-        // retrieve all orders for the specified date
-        if (!getOrders(date)) {
-            System.err.printf("Error retrieving orders for %s", date);
-            return;
+        System.out.printf("loaded everything in %.2f seconds\n", (System.nanoTime() - loadStart) / 1000000000.0);
+        if (httpCache != null) {
+            System.out.printf("web server files: %d unchanged or offline, %d downloaded\n",
+                    httpCache.getHits(), httpCache.getMisses());
         }
 
-        // after all locations are loaded into the map, initialize the three arrays representing the
-        // graph and run the all-pairs shortest path algorithm
-        int s = drone.getLocationNames().size();
-        drone.initializeGraph(s);
+        // add the no-fly zones, landmarks and shops to the map and solve the shortest paths between them
+        World world = World.build(loader, wUtils);
+        if (world == null) return;
 
-        // deliver the orders
-        if (!drone.deliverOrders(orders)){
-            GeoJsonUtils.writeGeoJson(FeatureCollection.fromFeature(Feature.fromGeometry(LineString.fromLngLats(drone.getPathRecord()))), outputFileFailed);
-            System.err.println("Failed to deliver the orders or return to Appleton");
+        // the orders of the date were retrieved by the loader, their delivery addresses are inserted into a
+        // copy of the solved graph and the path is written to the result file as the drone flies
+        List<OrderRecord> records = loader.getOrders();
+        boolean delivered;
+        try (OrderPipeline pipeline = new OrderPipeline(wUtils, world.menus)) {
+            delivered = new DeliveryDay(LocalDate.parse(date), records, world, pipeline, databaseUtils).call();
+        }
+        // the day wrote its rows and gave its connection back when it finished
+        ConnectionPool pool = databaseUtils.getPool();
+        System.out.printf("database connections: %d reused, %d opened, statements: %d reused, %d prepared\n",
+                pool.getHits(), pool.getMisses(), pool.getStatementHits(), pool.getStatementMisses());
+        databaseUtils.close();
+        if (!delivered){
             return;
         }
 
-        // retrieve the path taken by the drone and write it to the result file
-        LineString result = LineString.fromLngLats(drone.getPathRecord());
-        GeoJsonUtils.writeGeoJson(FeatureCollection.fromFeature(Feature.fromGeometry(result)), outputFile);
+        System.out.printf("w3w addresses: %d from the cache, %d from the server, hit rate %.2f\n",
+                wUtils.getHits(), wUtils.getMisses(), wUtils.getHitRate());
 
         long endTime = System.nanoTime();
         double duration = (endTime - startTime) / 1000000000.0;
         System.out.printf("takes %.2f seconds\n", duration);
     }
-
-    /**
-     * retrieves the no-fly zones from the server and store them in the drone
-     * @return true if no error occurs, false otherwise
-     */
-    private static boolean getNoFlyZones() {
-        // retrieve no-fly zones from the server
-        List<Feature> nfz = GeoJsonUtils.readGeoJson(geoJsonUtils.noFlyZone);
-        if (nfz == null) {
-            System.err.println("Problem reading noflyzone geojson file");
-            return false;
-        }
-        // store the no-fly zones as a list of Polygons in the drone
-        for (Feature f: nfz) {
-            if (f.geometry() instanceof Polygon) {
-                drone.addNFZ((Polygon) f.geometry());
-            }
-        }
-        return true;
-    }
-
-    /**
-     * Get the landmarks used to avoid no-fly zones, and add them to the map of the drone
-     * @return true if no error occurs, false otherwise
-     */
-    private static boolean getLandmarks() {
-        // get the landmarks
-        List<Feature> landmarks = GeoJsonUtils.readGeoJson(geoJsonUtils.landmarks);
-        if (landmarks == null) {
-            System.err.println("Problem reading GeoJson file landmarks");
-            return false;
-        }
-        for (Feature landmark: landmarks) {
-            Location loc = wUtils.convertW3W(landmark.getStringProperty("location"));
-            if (loc == null) {
-                System.err.println("Problem reading W3W address file");
-                return false;
-            }
-            drone.addLocation(landmark.getStringProperty("name"), loc.coordinates);
-        }
-        return true;
-    }
-
-    /**
-     * get the information of all the shops providing food for the service, and add them
-     * to the map of the drone if it's not already added
-     * @return true if no error occurs, false otherwise
-     */
-    private static boolean getShopsInfo() {
-        // get all the shops
-        Collection<Shop> allShops = menus.provider.values();
-        for (Shop shop: allShops) {
-            Location loc = wUtils.convertW3W(shop.location);
-            if (loc == null) {
-                System.err.println("Problem reading W3W address file");
-                return false;
-            }
-            if (!drone.getLocations().containsKey(shop.name)) {
-                drone.addLocation(shop.name, loc.coordinates);
-            }
-        }
-        return true;
-    }
-
-
-    /**
-     * Retrieve the orders for a specified date. Save them in the app class and
-     * later pass it to the drone
-     * @param date the date when the orders are made
-     * @return true no error occurs, false otherwise
-     */
-    private static boolean getOrders(String date) {
-        // get the order details
-        List<String[]> orderNoDeliver = databaseUtils.retrieveOrders(date);
-        if (orderNoDeliver == null) {
-            System.err.println("Problem reading orders table");
-            return false;
-        }
-        for (String[] order : orderNoDeliver) {
-            String orderNo = order[0];
-            // add all deliver destinations to the locations map as well
-            // I simply named all the destinations of orders with their
-            // corresponding w3w address
-            String w3w = order[1];
-            if (wUtils.convertW3W(w3w) == null) {
-                System.err.println("Problem reading W3W address file");
-                return false;
-            }
-            LongLat deliverTo = wUtils.convertW3W(w3w).coordinates;
-            // add the delivery address to the map if it isn't already there
-            if (!drone.getLocations().containsKey(w3w)) {
-                drone.addLocation(w3w, deliverTo);
-            }
-
-            List<String> items = databaseUtils.getItems(orderNo);
-            if (items == null) {
-                System.err.println("Problem reading the orderDetails table");
-                return false;
-            }
-
-            int deliveryCost = menus.getDeliveryCost(items.toArray(new String[0]));
-            if (deliveryCost == -1) {
-                System.err.println("Problem reading the menus file or illegal order");
-                return false;
-            }
-
-            List<Shop> shops = new ArrayList<>(menus.getShopped());
-            // create an Order object containing the information just acquired
-            // and add it to the list of orders on the specified date
-            Order newOrder = new Order(orderNo, w3w, items, deliverTo, shops, deliveryCost);
-            orders.add(newOrder);
-        }
-        return true;
-    }
 }
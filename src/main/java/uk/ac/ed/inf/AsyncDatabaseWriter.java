@@ -0,0 +1,250 @@
+package uk.ac.ed.inf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * write-behind stage in front of a BatchWriter, the simulation only puts rows on a bounded queue and a
+ * thread of its own drains them in batches into the database, so planning never waits for a round trip
+ * to the database unless the queue is full
+ */
+public class AsyncDatabaseWriter implements AutoCloseable {
+    /** default number of rows the queue holds before storing a row blocks */
+    public static final int CAPACITY = 4096;
+
+    /** kinds of entries on the queue */
+    private static final int PATH = 0;
+    private static final int DELIVERY = 1;
+    private static final int COMMIT = 2;
+    private static final int FLUSH = 3;
+    private static final int STOP = 4;
+
+    /**
+     * one entry on the queue, a row of either table or a request to the writer thread
+     */
+    private static final class Entry {
+        final int kind;
+        final String deliveryDate;
+        final String orderNo;
+        final String deliveredTo;
+        final int cost;
+        final LongLat from;
+        final int angle;
+        final LongLat to;
+        /** counted down by the writer thread once everything before a FLUSH or STOP is written */
+        final CountDownLatch done;
+
+        Entry(int kind, String deliveryDate, String orderNo, String deliveredTo, int cost, LongLat from, int angle,
+              LongLat to, CountDownLatch done) {
+            this.kind = kind;
+            this.deliveryDate = deliveryDate;
+            this.orderNo = orderNo;
+            this.deliveredTo = deliveredTo;
+            this.cost = cost;
+            this.from = from;
+            this.angle = angle;
+            this.to = to;
+            this.done = done;
+        }
+    }
+
+    /** the rows waiting to be written */
+    private final BlockingQueue<Entry> queue;
+    /** the batched writer, only used by the writer thread */
+    private final BatchWriter sink;
+    /** the thread draining the queue */
+    private final Thread thread;
+    /** number of rows or batches the writer thread failed to write since the last flush */
+    private final AtomicInteger failures = new AtomicInteger();
+    /** whether close has been called */
+    private volatile boolean closed = false;
+
+    /**
+     * start the writer thread with the default queue capacity
+     * @param sink the writer the rows are drained into, closed together with this writer
+     */
+    public AsyncDatabaseWriter(BatchWriter sink) {
+        this(sink, CAPACITY);
+    }
+
+    /**
+     * start the writer thread
+     * @param sink the writer the rows are drained into, closed together with this writer
+     * @param capacity number of rows the queue holds before storing a row blocks
+     */
+    public AsyncDatabaseWriter(BatchWriter sink, int capacity) {
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = new Thread(this::drain, "database-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * queue one move of the drone for the flightpath table, blocks while the queue is full. The drones of
+     * several days can store their rows at the same time
+     * @param deliveryDate the date of the order in YYYY-MM-DD format, null if unknown
+     * @param orderNo the order number of the order currently delivered by the drone
+     * @param from the starting location of the drone
+     * @param angle angle the drone is moving towards
+     * @param to the next location of the drone
+     * @return false if the row can't be queued, true otherwise
+     */
+    public boolean storePath(String deliveryDate, String orderNo, LongLat from, int angle, LongLat to) {
+        return put(new Entry(PATH, deliveryDate, orderNo, null, 0, from, angle, to, null));
+    }
+
+    /**
+     * queue one delivery for the deliveries table, blocks while the queue is full
+     * @param deliveryDate the date of the order in YYYY-MM-DD format, null if unknown
+     * @param orderNo the order number of the order being delivered
+     * @param deliveredTo the w3w location of the delivery address
+     * @param cost the delivery cost in pence
+     * @return false if the row can't be queued, true otherwise
+     */
+    public boolean storeOrder(String deliveryDate, String orderNo, String deliveredTo, int cost) {
+        return put(new Entry(DELIVERY, deliveryDate, orderNo, deliveredTo, cost, null, 0, null, null));
+    }
+
+    /**
+     * ask the writer thread to commit the rows queued so far without waiting for it
+     * @return false if the writer is closed or something failed to be written since the last flush, true otherwise
+     */
+    public boolean commit() {
+        return put(new Entry(COMMIT, null, null, null, 0, null, 0, null, null)) && failures.get() == 0;
+    }
+
+    /**
+     * wait until every row queued so far is committed
+     * @return true if nothing failed to be written since the last flush, false otherwise
+     */
+    public boolean flush() {
+        if (closed) return failures.get() == 0;
+        CountDownLatch done = new CountDownLatch(1);
+        try {
+            queue.put(new Entry(FLUSH, null, null, null, 0, null, 0, null, done));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        await(done);
+        // read and reset in one step so a failure counted by the writer thread meanwhile isn't lost
+        return failures.getAndSet(0) == 0;
+    }
+
+    /**
+     * get the number of rows or batches the writer thread failed to write since the last flush
+     * @return the number of failures
+     */
+    public int getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * write the rows still queued, stop the writer thread and close the BatchWriter
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        CountDownLatch done = new CountDownLatch(1);
+        put(new Entry(STOP, null, null, null, 0, null, 0, null, done));
+        closed = true;
+        await(done);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * put an entry on the queue, waiting for space if the queue is full
+     * @return false if the writer is closed or the thread was interrupted, true otherwise
+     */
+    private boolean put(Entry entry) {
+        if (closed) {
+            System.err.println("Database writer is already closed");
+            return false;
+        }
+        try {
+            queue.put(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted while queueing a row for the database");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * wait for the writer thread to reach an entry
+     */
+    private static void await(CountDownLatch done) {
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * body of the writer thread, takes everything available from the queue at once and hands it to the
+     * BatchWriter until it reaches STOP
+     */
+    private void drain() {
+        List<Entry> entries = new ArrayList<>();
+        while (true) {
+            try {
+                entries.add(queue.take());
+            } catch (InterruptedException e) {
+                // only close stops the writer thread
+                continue;
+            }
+            queue.drainTo(entries);
+            for (Entry entry: entries) {
+                if (!write(entry)) return;
+            }
+            entries.clear();
+        }
+    }
+
+    /**
+     * hand one entry to the BatchWriter, a row that can't be written is counted as a failure instead of
+     * stopping the writer thread, and whoever waits for a FLUSH or STOP is always woken up
+     * @return false once the entry was STOP, true otherwise
+     */
+    private boolean write(Entry entry) {
+        try {
+            switch (entry.kind) {
+                case PATH:
+                    if (!sink.addPath(entry.deliveryDate, entry.orderNo, entry.from, entry.angle, entry.to)) failures.incrementAndGet();
+                    break;
+                case DELIVERY:
+                    if (!sink.addDelivery(entry.deliveryDate, entry.orderNo, entry.deliveredTo, entry.cost)) failures.incrementAndGet();
+                    break;
+                case COMMIT:
+                case FLUSH:
+                    if (!sink.flush()) failures.incrementAndGet();
+                    break;
+                case STOP:
+                    try {
+                        if (!sink.flush()) failures.incrementAndGet();
+                    } finally {
+                        sink.close();
+                    }
+                    break;
+            }
+        } catch (RuntimeException ex) {
+            System.err.println("Problem writing to deliveries and flightpath tables");
+            System.err.println(ex);
+            failures.incrementAndGet();
+        } finally {
+            if (entry.done != null) entry.done.countDown();
+        }
+        return entry.kind != STOP;
+    }
+}
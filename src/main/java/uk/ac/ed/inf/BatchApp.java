@@ -0,0 +1,205 @@
+package uk.ac.ed.inf;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The lunch delivery drone control system for a range of days in one run. The menus, no-fly zones,
+ * landmarks and shops are loaded and the shortest paths between them solved once into a World, then
+ * the days are delivered in parallel, each starting a drone from a copy of that base map and writing
+ * its own result file like App does for one day. The rows written to the database are tagged with the
+ * date of their day and committed by a writer of the day, apart from the other days
+ */
+public class BatchApp {
+    /**
+     * deliver the orders of every day from a first to a last date
+     * @param args day, month and year of the first date, day, month and year of the last date, webserver
+     *             port, database port and optionally "offline"
+     */
+    public static void main(String[] args) {
+        long startTime = System.nanoTime();
+        if (args.length != 8 && args.length != 9) {
+            System.err.println("You should enter 8 arguments: day, month, year of the first and of the last date, webserver port and database port!");
+            System.err.println("Add \"offline\" as 9th argument to use the cached files without the web server");
+            return;
+        }
+        LocalDate from;
+        LocalDate to;
+        try {
+            from = LocalDate.of(Integer.parseInt(args[2]), Integer.parseInt(args[1]), Integer.parseInt(args[0]));
+            to = LocalDate.of(Integer.parseInt(args[5]), Integer.parseInt(args[4]), Integer.parseInt(args[3]));
+        } catch (NumberFormatException | DateTimeException ex) {
+            System.err.println("Invalid date: " + ex.getMessage());
+            return;
+        }
+        String port = args[6];
+        String dbPort = args[7];
+        boolean offline = args.length > 8 && args[8].equals("offline");
+        // name of the server for connection
+        String name = "localhost";
+
+        try {
+            ServerUtils.setCache(new HttpCache(Paths.get("..", "http-cache"), offline));
+        } catch (IOException ex) {
+            System.err.println("Cannot create the http cache, reading everything from the web server");
+        }
+        W3WUtils wUtils = new W3WUtils(name, port, Paths.get("..", "w3w-cache.txt"));
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        // every day being delivered holds a connection for its writer, the cursor holds one more
+        try (DatabaseUtils databaseUtils = new DatabaseUtils(name, dbPort, "derbyDB", parallelism + 1)) {
+            // the orders are streamed day by day below, so the loader only fetches the files of the web server
+            StartupLoader loader = new StartupLoader(name, port, wUtils);
+            if (!loader.load(Collections::emptyList)) {
+                System.err.println("Cannot load the information needed to plan the deliveries");
+                return;
+            }
+            World world = World.build(loader, wUtils);
+            if (world == null) return;
+            System.out.printf("built the base map in %.2f seconds\n", (System.nanoTime() - startTime) / 1000000000.0);
+
+            int days = run(from, to, world, databaseUtils, parallelism);
+            System.out.printf("%d of %d days delivered\n", days, ChronoUnit.DAYS.between(from, to) + 1);
+        }
+        System.out.printf("w3w addresses: %d from the cache, %d from the server, hit rate %.2f\n",
+                wUtils.getHits(), wUtils.getMisses(), wUtils.getHitRate());
+        System.out.printf("takes %.2f seconds\n", (System.nanoTime() - startTime) / 1000000000.0);
+    }
+
+    /**
+     * deliver the orders of every day of a range, days without orders get a result file with the drone
+     * staying at Appleton Tower like App gives them. The days are read from the database one after the
+     * other and handed to a work-stealing pool as they arrive, each as a DeliveryDay of its own
+     * @param from the first date
+     * @param to the last date
+     * @param world the base map and menus shared by the days
+     * @param databaseUtils the database the orders are read from and the moves are recorded in
+     * @param parallelism number of days delivered at the same time
+     * @return the number of days the drone delivered all its orders on and returned to Appleton Tower
+     */
+    static int run(LocalDate from, LocalDate to, World world, DatabaseUtils databaseUtils, int parallelism) {
+        try (OrderCursor cursor = databaseUtils.retrieveOrdersBetween(from.toString(), to.toString())) {
+            if (cursor == null) {
+                System.err.println("Problem reading orders and orderDetails tables");
+                return 0;
+            }
+            return run(from, to, cursor, world, databaseUtils, parallelism, DeliveryDay.DIRECTORY);
+        }
+    }
+
+    /**
+     * deliver the orders of every day of a range read from a cursor. A day of the cursor that isn't in the
+     * range or comes out of order is reported and left out, the days after it are still delivered. At most
+     * parallelism days are in flight, the orders of the next day are only read once one of them finished.
+     * If reading the cursor fails the days not handed out yet are reported and not delivered, a day that
+     * throws is reported and the other days still count
+     * @param from the first date
+     * @param to the last date
+     * @param cursor hands out the orders of the range one day at a time in deliveryDate order
+     * @param world the base map and menus shared by the days
+     * @param databaseUtils the database the moves are recorded in
+     * @param parallelism number of days delivered at the same time
+     * @param directory the directory the result files are written to
+     * @return the number of days the drone delivered all its orders on and returned to Appleton Tower
+     */
+    static int run(LocalDate from, LocalDate to, OrderCursor cursor, World world, DatabaseUtils databaseUtils,
+                   int parallelism, Path directory) {
+        List<ForkJoinTask<Boolean>> days = new ArrayList<>();
+        // the date of each day handed out, to report the days that fail
+        List<LocalDate> dates = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        // one permit for each day in flight
+        Semaphore permits = new Semaphore(parallelism);
+        try (OrderPipeline pipeline = new OrderPipeline(world.wUtils, world.menus)) {
+            LocalDate date = from;
+            try {
+                // the cursor only hands out days that have orders, next is the first one not handed out yet
+                List<OrderRecord> next = null;
+                LocalDate nextDate = null;
+                boolean ended = false;
+                for (; !date.isAfter(to); date = date.plusDays(1)) {
+                    permits.acquireUninterruptibly();
+                    // days of the cursor before this one are out of the range or out of order
+                    while (!ended && (next == null || nextDate == null || nextDate.isBefore(date))) {
+                        if (next != null) skip(next);
+                        next = cursor.nextDay();
+                        nextDate = dateOf(next);
+                        ended = next == null;
+                    }
+                    List<OrderRecord> records = new ArrayList<>();
+                    if (next != null && nextDate.equals(date)) {
+                        records = next;
+                        next = null;
+                    }
+                    DeliveryDay day = new DeliveryDay(date, records, world, pipeline, databaseUtils, directory);
+                    days.add(pool.submit(() -> {
+                        try {
+                            return day.call();
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                    dates.add(date);
+                }
+                // the cursor should end with the range
+                if (next != null) skip(next);
+                while (!ended && (next = cursor.nextDay()) != null) {
+                    skip(next);
+                }
+            } catch (SQLException ex) {
+                System.err.println("Problem with db server connection");
+                System.err.println(ex.getMessage());
+                if (!date.isAfter(to)) {
+                    System.err.printf("The orders of %s to %s could not be read, these days were not delivered\n",
+                            date, to);
+                }
+            }
+            // the days already handed out finish before the pipeline is closed, a day that throws is
+            // reported and counted as not delivered like a failed one
+            int delivered = 0;
+            for (int i = 0; i < days.size(); i ++) {
+                try {
+                    if (days.get(i).join()) delivered ++;
+                } catch (RuntimeException ex) {
+                    System.err.printf("%s: Failed to deliver the orders: %s\n", dates.get(i), ex.getMessage());
+                }
+            }
+            return delivered;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * get the date of the orders of a day handed out by the cursor
+     * @param day the orders of the day, null if the cursor has no more days
+     * @return the date, null if there is no day or its date can't be read
+     */
+    private static LocalDate dateOf(List<OrderRecord> day) {
+        if (day == null) return null;
+        try {
+            return LocalDate.parse(day.get(0).deliveryDate);
+        } catch (DateTimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * report the orders of a day of the cursor that is left out
+     * @param day the orders of the day
+     */
+    private static void skip(List<OrderRecord> day) {
+        System.err.printf("Skipping %d orders of %s: the day is out of order or outside the range\n",
+                day.size(), day.get(0).deliveryDate);
+    }
+}
@@ -0,0 +1,221 @@
+package uk.ac.ed.inf;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * writes the deliveries and the moves of the drone into the deliveries and flightpath tables through
+ * one pooled connection and one prepared statement per table, the rows are sent in batches and committed
+ * together instead of one round trip to the database per row
+ */
+public class BatchWriter implements AutoCloseable {
+    /** number of rows sent to the database in one batch if no flush happens before */
+    public static final int BATCH_SIZE = 200;
+
+    /** the pooled connection borrowed for as long as the writer is open */
+    private final ConnectionPool.PooledConnection pooled;
+    /** the connection all rows are written through, not in auto-commit mode */
+    private final Connection connection;
+    /** the insert into the flightpath table reused for every move */
+    private final PreparedStatement insertPath;
+    /** the insert into the deliveries table reused for every delivery */
+    private final PreparedStatement insertDelivery;
+    /** number of rows added to the current batch */
+    private int pending = 0;
+    /** number of rows sent to the database but not committed yet */
+    private int sent = 0;
+    /** number of rows committed to the table */
+    private int written = 0;
+    /** whether sending a batch failed since the last commit, the rest of the order is rolled back with it */
+    private boolean failed = false;
+    /** whether the writer has been closed */
+    private boolean closed = false;
+
+    /**
+     * prepare the insert statements on a pooled connection, the writer gives the connection back when it is closed
+     * @param pooled connection to the database holding the deliveries and flightpath tables
+     * @throws SQLException if the statements can't be prepared, the connection is given back in that case
+     */
+    public BatchWriter(ConnectionPool.PooledConnection pooled) throws SQLException {
+        this.pooled = pooled;
+        this.connection = pooled.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            this.insertPath = pooled.prepare("insert into flightpath values (?, ?, ?, ?, ?, ?, ?)");
+            this.insertDelivery = pooled.prepare("insert into deliveries values (?, ?, ?, ?)");
+        } catch (SQLException ex) {
+            pooled.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * add one move of the drone to the current batch, the batch is sent once it holds BATCH_SIZE rows but only
+     * committed by flush
+     * @param deliveryDate the date of the order in YYYY-MM-DD format, null if unknown
+     * @param orderNo the order number of the order currently delivered by the drone
+     * @param from the starting location of the drone
+     * @param angle angle the drone is moving towards
+     * @param to the next location of the drone
+     * @return true if no errors occurred, false otherwise
+     */
+    public boolean addPath(String deliveryDate, String orderNo, LongLat from, int angle, LongLat to) {
+        if (closed) {
+            System.err.println("Database writer is already closed");
+            return false;
+        }
+        try {
+            insertPath.setString(1, orderNo);
+            insertPath.setDouble(2, from.lng);
+            insertPath.setDouble(3, from.lat);
+            insertPath.setInt(4, angle);
+            insertPath.setDouble(5, to.lng);
+            insertPath.setDouble(6, to.lat);
+            setDate(insertPath, 7, deliveryDate);
+            insertPath.addBatch();
+        } catch (SQLException ex) {
+            System.err.println("Problem with db server connection");
+            System.err.println(ex.getMessage());
+            return false;
+        }
+        pending ++;
+        return pending < BATCH_SIZE || sendBatch();
+    }
+
+    /**
+     * add one delivery to the current batch, the batch is sent once it holds BATCH_SIZE rows but only
+     * committed by flush
+     * @param deliveryDate the date of the order in YYYY-MM-DD format, null if unknown
+     * @param orderNo the order number of the order being delivered
+     * @param deliveredTo the w3w location of the delivery address
+     * @param cost the delivery cost in pence
+     * @return true if no errors occurred, false otherwise
+     */
+    public boolean addDelivery(String deliveryDate, String orderNo, String deliveredTo, int cost) {
+        if (closed) {
+            System.err.println("Database writer is already closed");
+            return false;
+        }
+        try {
+            insertDelivery.setString(1, orderNo);
+            insertDelivery.setString(2, deliveredTo);
+            insertDelivery.setInt(3, cost);
+            setDate(insertDelivery, 4, deliveryDate);
+            insertDelivery.addBatch();
+        } catch (SQLException ex) {
+            System.err.println("Problem with db server connection");
+            System.err.println(ex.getMessage());
+            return false;
+        }
+        pending ++;
+        return pending < BATCH_SIZE || sendBatch();
+    }
+
+    /**
+     * send the rows of the current batch and commit everything sent since the last commit, all of it is rolled
+     * back if that fails or if a batch of the same order failed before, so an order is written whole or not at all
+     * @return true if no errors occurred, false otherwise
+     */
+    public boolean flush() {
+        if (closed || pending == 0 && sent == 0 && !failed) return true;
+        if (!failed && !sendBatch()) return false;
+        if (failed) {
+            rollback();
+            return false;
+        }
+        try {
+            connection.commit();
+            written += sent;
+            sent = 0;
+            return true;
+        } catch (SQLException ex) {
+            System.err.println("Problem writing to deliveries and flightpath tables");
+            System.err.println(ex.getMessage());
+            rollback();
+            return false;
+        }
+    }
+
+    /**
+     * send the rows of the current batch without committing them, so a batch filled in the middle of an
+     * order doesn't commit half of it, nothing is sent after a failure until the next flush rolls back
+     * @return true if no errors occurred, false otherwise
+     */
+    private boolean sendBatch() {
+        if (failed) {
+            clearBatch();
+            return false;
+        }
+        try {
+            insertDelivery.executeBatch();
+            insertPath.executeBatch();
+            sent += pending;
+            return true;
+        } catch (SQLException ex) {
+            System.err.println("Problem writing to deliveries and flightpath tables");
+            System.err.println(ex.getMessage());
+            failed = true;
+            clearBatch();
+            return false;
+        } finally {
+            pending = 0;
+        }
+    }
+
+    /**
+     * drop the rows not sent yet
+     */
+    private void clearBatch() {
+        try {
+            insertDelivery.clearBatch();
+            insertPath.clearBatch();
+        } catch (SQLException ex) {
+            System.err.println(ex.getMessage());
+        }
+        pending = 0;
+    }
+
+    /**
+     * drop everything since the last commit and start over with a clean transaction
+     */
+    private void rollback() {
+        clearBatch();
+        sent = 0;
+        failed = false;
+        try {
+            connection.rollback();
+        } catch (SQLException ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+
+    /**
+     * get the number of rows committed to the deliveries and flightpath tables so far
+     * @return the number of rows written
+     */
+    public int getWritten() {
+        return written;
+    }
+
+    /**
+     * flush the remaining rows and give the connection back to the pool, the statements stay cached on it
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        flush();
+        closed = true;
+        pooled.close();
+    }
+
+    /**
+     * set a date parameter from a date in YYYY-MM-DD format, or to null
+     */
+    private static void setDate(PreparedStatement statement, int index, String date) throws SQLException {
+        if (date == null) statement.setNull(index, Types.DATE);
+        else statement.setDate(index, Date.valueOf(date));
+    }
+}
@@ -0,0 +1,320 @@
+package uk.ac.ed.inf;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a small pool of connections to the database, connections are opened when needed up to the size of the
+ * pool, checked before they are handed out again and keep the statements prepared on them, so running the
+ * same query again costs neither a new connection nor a new statement
+ */
+public class ConnectionPool implements AutoCloseable {
+    /** default number of connections in the pool */
+    public static final int SIZE = 4;
+    /** default seconds the database gets to answer when an idle connection is checked */
+    public static final int VALIDATION_TIMEOUT = 2;
+    /** seconds to wait for a connection when all of them are in use */
+    private static final int ACQUIRE_TIMEOUT = 30;
+
+    /**
+     * opens a new connection to the database
+     */
+    public interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    /**
+     * a connection borrowed from the pool, closing it gives it back to the pool
+     */
+    public class PooledConnection implements AutoCloseable {
+        /** the connection to the database */
+        private final Connection connection;
+        /** the statements prepared on this connection, by their sql */
+        private final HashMap<String, PreparedStatement> statements = new HashMap<>();
+        /** whether the connection is borrowed at the moment */
+        private boolean borrowed = false;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * get the connection to the database, it must not be closed by the caller
+         * @return the connection
+         */
+        public Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * prepare a statement on this connection, or get the one prepared with the same sql before, the
+         * statement must not be closed by the caller
+         * @param sql the sql of the statement
+         * @return the prepared statement
+         * @throws SQLException if the statement can't be prepared
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement != null) {
+                statementHits.incrementAndGet();
+                return statement;
+            }
+            statementMisses.incrementAndGet();
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+            return statement;
+        }
+
+        /**
+         * give the connection back to the pool, anything not committed is rolled back
+         */
+        @Override
+        public void close() {
+            release(this);
+        }
+
+        /**
+         * close the statements and the connection to the database
+         */
+        private void discard() {
+            try {
+                for (PreparedStatement statement: statements.values()) {
+                    statement.close();
+                }
+                connection.close();
+            } catch (SQLException ex) {
+                System.err.println("Problem closing the db server connection");
+                System.err.println(ex.getMessage());
+            }
+        }
+    }
+
+    /** opens the connections */
+    private final ConnectionFactory factory;
+    /** the connections not borrowed at the moment */
+    private final BlockingQueue<PooledConnection> idle;
+    /** number of connections opened and not discarded */
+    private int opened = 0;
+    /** maximum number of connections open at the same time */
+    private final int size;
+    /** seconds the database gets to answer when an idle connection is checked, 0 to hand it out unchecked */
+    private final int validationTimeout;
+    /** whether the pool has been closed */
+    private boolean closed = false;
+
+    /** number of times an idle connection was handed out */
+    private final AtomicLong hits = new AtomicLong();
+    /** number of times a new connection had to be opened */
+    private final AtomicLong misses = new AtomicLong();
+    /** number of times a statement prepared before was reused */
+    private final AtomicLong statementHits = new AtomicLong();
+    /** number of times a statement had to be prepared */
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    /**
+     * create a pool of connections to a database server
+     * @param server the address of the database server
+     * @param size maximum number of connections open at the same time
+     */
+    public ConnectionPool(String server, int size) {
+        this(server, size, VALIDATION_TIMEOUT);
+    }
+
+    /**
+     * create a pool of connections to a database server
+     * @param server the address of the database server
+     * @param size maximum number of connections open at the same time
+     * @param validationTimeout seconds an idle connection is given to answer the check before it is handed
+     *                          out again, 0 to skip the check
+     */
+    public ConnectionPool(String server, int size, int validationTimeout) {
+        this(() -> DriverManager.getConnection(server), size, validationTimeout);
+    }
+
+    /**
+     * create a pool of connections opened by a factory
+     * @param factory opens a new connection to the database
+     * @param size maximum number of connections open at the same time
+     */
+    public ConnectionPool(ConnectionFactory factory, int size) {
+        this(factory, size, VALIDATION_TIMEOUT);
+    }
+
+    /**
+     * create a pool of connections opened by a factory
+     * @param factory opens a new connection to the database
+     * @param size maximum number of connections open at the same time
+     * @param validationTimeout seconds an idle connection is given to answer the check before it is handed
+     *                          out again, 0 to skip the check
+     */
+    public ConnectionPool(ConnectionFactory factory, int size, int validationTimeout) {
+        if (size < 1) throw new IllegalArgumentException("The pool needs at least one connection");
+        if (validationTimeout < 0) throw new IllegalArgumentException("The validation timeout can't be negative");
+        this.factory = factory;
+        this.size = size;
+        this.validationTimeout = validationTimeout;
+        this.idle = new ArrayBlockingQueue<>(size);
+    }
+
+    /**
+     * borrow a connection from the pool, an idle connection is checked before it is handed out unless the
+     * validation timeout is 0, and a new one
+     * is opened if there is none and the pool isn't full, otherwise wait for one to be given back
+     * @return the connection, give it back by closing it
+     * @throws SQLException if a new connection can't be opened or none is given back in time
+     */
+    public PooledConnection acquire() throws SQLException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(ACQUIRE_TIMEOUT);
+        while (true) {
+            PooledConnection pooled = idle.poll();
+            if (pooled == null && reserve()) {
+                try {
+                    pooled = new PooledConnection(factory.open());
+                } catch (SQLException ex) {
+                    unreserve();
+                    throw ex;
+                }
+                return borrow(pooled, misses);
+            }
+            if (pooled == null) {
+                // the pool is full, wait for a connection to be given back or discarded
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) throw new SQLException("Timed out waiting for a connection");
+                try {
+                    pooled = idle.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a connection");
+                }
+            }
+            if (pooled != null) {
+                if (isValid(pooled)) return borrow(pooled, hits);
+                discard(pooled);
+            }
+        }
+    }
+
+    /**
+     * get the number of times an idle connection was handed out
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * get the number of times a new connection had to be opened
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * get the number of times a statement prepared before was reused
+     * @return the number of statement hits
+     */
+    public long getStatementHits() {
+        return statementHits.get();
+    }
+
+    /**
+     * get the number of times a statement had to be prepared
+     * @return the number of statement misses
+     */
+    public long getStatementMisses() {
+        return statementMisses.get();
+    }
+
+    /**
+     * close the idle connections, the borrowed ones are closed when they are given back
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        PooledConnection pooled;
+        while ((pooled = idle.poll()) != null) {
+            discard(pooled);
+        }
+    }
+
+    /**
+     * make room for a new connection if the pool isn't full
+     * @return false if the pool is full, true otherwise
+     * @throws SQLException if the pool is closed
+     */
+    private synchronized boolean reserve() throws SQLException {
+        if (closed) throw new SQLException("The connection pool is closed");
+        if (opened == size) return false;
+        opened ++;
+        return true;
+    }
+
+    /**
+     * give back the room of a connection that was closed or couldn't be opened
+     */
+    private synchronized void unreserve() {
+        opened --;
+    }
+
+    /**
+     * mark a connection as borrowed and count how it was obtained
+     */
+    private PooledConnection borrow(PooledConnection pooled, AtomicLong counter) {
+        pooled.borrowed = true;
+        counter.incrementAndGet();
+        return pooled;
+    }
+
+    /**
+     * take a connection back, rolling back anything not committed, and close it if the pool is closed
+     */
+    private void release(PooledConnection pooled) {
+        if (!pooled.borrowed) return;
+        pooled.borrowed = false;
+        try {
+            if (!pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+        } catch (SQLException ex) {
+            System.err.println("Problem with db server connection");
+            System.err.println(ex.getMessage());
+            discard(pooled);
+            return;
+        }
+        synchronized (this) {
+            if (!closed && idle.offer(pooled)) return;
+        }
+        discard(pooled);
+    }
+
+    /**
+     * check that an idle connection still works before it is handed out, unless the check is turned off
+     */
+    private boolean isValid(PooledConnection pooled) {
+        if (validationTimeout == 0) return true;
+        try {
+            return pooled.connection.isValid(validationTimeout);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * close a connection and make room in the pool for a new one
+     */
+    private void discard(PooledConnection pooled) {
+        unreserve();
+        pooled.discard();
+    }
+}
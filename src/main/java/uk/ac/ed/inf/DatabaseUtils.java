@@ -2,15 +2,25 @@ package uk.ac.ed.inf;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 /**
  * class providing methods to interface with the database, including creating, reading from and writing to the
  * specified database tables
  */
-public class DatabaseUtils {
+public class DatabaseUtils implements AutoCloseable {
     /** the address of the database server */
     public final String server;
+    /** the connections to the database, shared by the queries and the writer threads */
+    private final ConnectionPool pool;
+    /** whether closing this object closes the pool, false for the views of single days */
+    private final boolean ownsPool;
+    /** writes the deliveries and flightpath tables in the background, started with the first row stored */
+    private volatile AsyncDatabaseWriter writer;
+    /** whether the writer failed to get a connection, it isn't tried again so a database that is down is
+     * reported once instead of on every row */
+    private boolean writerFailed = false;
 
     /**
      * construct a DatabaseUtils object with database server name, port and name of database, and create new
@@ -20,47 +30,227 @@ public class DatabaseUtils {
      * @param dbName name of the database
      */
     public DatabaseUtils(String name, String port, String dbName) {
-        this.server = "jdbc:derby://" + name + ":" + port + "/" + dbName;
+        this(name, port, dbName, ConnectionPool.SIZE);
+    }
+
+    /**
+     * construct a DatabaseUtils object with database server name, port, name of database and the number of
+     * connections to keep open, and create new deliveries and flightpath tables
+     * @param name machine name of the database server
+     * @param port port to access database
+     * @param dbName name of the database
+     * @param poolSize maximum number of connections open at the same time, the writer thread keeps one of them
+     */
+    public DatabaseUtils(String name, String port, String dbName, int poolSize) {
+        this(url(name, port, dbName), new ConnectionPool(url(name, port, dbName), poolSize));
         try {
             createTables();
+            createIndex("ORDERS", "DELIVERYDATE", "create index ordersDeliveryDate on orders(deliveryDate)");
+            createIndex("ORDERDETAILS", "ORDERNO", "create index orderDetailsOrderNo on orderDetails(orderNo)");
         } catch (SQLException e) {
             System.err.println("Problem with db server connection");
             System.err.println(e.getMessage());
         }
     }
 
+    /**
+     * construct a DatabaseUtils object over a pool of connections to a database whose tables are already
+     * created, the tables are left as they are
+     * @param server the address of the database server
+     * @param pool the connections to the database
+     */
+    DatabaseUtils(String server, ConnectionPool pool) {
+        this(server, pool, true);
+    }
+
+    /**
+     * construct a DatabaseUtils object over a pool of connections
+     * @param server the address of the database server
+     * @param pool the connections to the database
+     * @param ownsPool whether closing the object closes the pool
+     */
+    private DatabaseUtils(String server, ConnectionPool pool, boolean ownsPool) {
+        this.server = server;
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+    }
+
+    /**
+     * get a view of the database for the rows of one day, it shares the connections but has a writer of
+     * its own, so committing the rows of an order never commits the rows of another day and failures are
+     * counted for the day only. Closing the view writes its rows and gives its connection back, the pool
+     * stays open
+     * @return the view of the database
+     */
+    public DatabaseUtils forDay() {
+        return new DatabaseUtils(server, pool, false);
+    }
+
+    /**
+     * get the address of a database server
+     * @param name machine name of the database server
+     * @param port port to access database
+     * @param dbName name of the database
+     * @return the jdbc address of the database
+     */
+    private static String url(String name, String port, String dbName) {
+        return "jdbc:derby://" + name + ":" + port + "/" + dbName;
+    }
+
     /**
      * create new deliveries and flightpath tables
      * @throws SQLException if connection error to the database server occurs in the process
      */
     private void createTables() throws SQLException {
-        Connection connection = DriverManager.getConnection(this.server);
-        Statement statement = connection.createStatement();
+        try (ConnectionPool.PooledConnection pooled = pool.acquire();
+             Statement statement = pooled.getConnection().createStatement()) {
+            // drop deliveries and flightpath tables if they already exist
+            DatabaseMetaData databaseMetaData = pooled.getConnection().getMetaData();
+            try (ResultSet resultSet = databaseMetaData.getTables(null, null, "DELIVERIES", null)) {
+                if (resultSet.next()) statement.execute("drop table deliveries");
+            }
+            try (ResultSet resultSet = databaseMetaData.getTables(null, null, "FLIGHTPATH", null)) {
+                if (resultSet.next()) statement.execute("drop table flightpath");
+            }
+
+            // create new deliveries and flightpath tables
+            statement.execute(
+                    "create table deliveries(" +
+                            "orderNo char(8) ," +
+                            "deliveredTo varchar(19) ," +
+                            "costInPence int ," +
+                            "deliveryDate date)"
+            );
+            statement.execute(
+                    "create table flightpath(" +
+                            "orderNo char(8) ," +
+                            "fromLongitude double ," +
+                            "fromLatitude double ," +
+                            "angle integer ," +
+                            "toLongitude double ," +
+                            "toLatitude double ," +
+                            "deliveryDate date)"
+            );
+        }
+    }
+
+
+    /**
+     * create an index if no index of the table starts with the column already
+     * @param table name of the table, in upper case like the database stores it
+     * @param column name of the column, in upper case like the database stores it
+     * @param create the statement creating the index
+     * @throws SQLException if connection error to the database server occurs in the process
+     */
+    private void createIndex(String table, String column, String create) throws SQLException {
+        try (ConnectionPool.PooledConnection pooled = pool.acquire()) {
+            DatabaseMetaData databaseMetaData = pooled.getConnection().getMetaData();
+            try (ResultSet resultSet = databaseMetaData.getIndexInfo(null, null, table, false, true)) {
+                while (resultSet.next()) {
+                    if (resultSet.getShort("ORDINAL_POSITION") == 1 && column.equals(resultSet.getString("COLUMN_NAME"))) return;
+                }
+            }
+            try (Statement statement = pooled.getConnection().createStatement()) {
+                statement.execute(create);
+            }
+        }
+    }
+
+
+    /**
+     * retrieve the orders for a specified date together with their items, in one query
+     * @param date the date of the orders
+     * @return the orders with their items, null if an error occurs
+     */
+    public List<OrderRecord> retrieveOrdersWithItems(String date) {
+        try (ConnectionPool.PooledConnection pooled = pool.acquire()) {
+            final String orderQuery = "select o.deliveryDate, o.orderNo, o.deliverTo, d.item from orders o " +
+                    "left join orderDetails d on o.orderNo = d.orderNo where o.deliveryDate=(?)";
+            PreparedStatement preparedStatement = pooled.prepare(orderQuery);
+            preparedStatement.setString(1, date);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return groupOrders(resultSet);
+            }
+        } catch (SQLException ex) {
+            System.err.println("Problem with db server connection");
+            System.err.println(ex.getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * stream the orders of a range of dates together with their items from one cursor, in deliveryDate order
+     * @param from the first date of the range, in YYYY-MM-DD format
+     * @param to the last date of the range, in YYYY-MM-DD format
+     * @return the cursor handing out the orders one day at a time, null if an error occurs
+     */
+    public OrderCursor retrieveOrdersBetween(String from, String to) {
+        return retrieveOrdersBetween(from, to, OrderCursor.FETCH_SIZE);
+    }
 
-        // drop deliveries and flightpath tables if they already exist
-        DatabaseMetaData databaseMetaData = connection.getMetaData();
-        ResultSet resultSet = databaseMetaData.getTables(null, null, "DELIVERIES", null);
-        if (resultSet.next()) statement.execute("drop table deliveries");
 
-        resultSet = databaseMetaData.getTables(null, null, "FLIGHTPATH", null);
-        if (resultSet.next()) statement.execute("drop table flightpath");
+    /**
+     * stream the orders of a range of dates together with their items from one cursor, in deliveryDate order
+     * @param from the first date of the range, in YYYY-MM-DD format
+     * @param to the last date of the range, in YYYY-MM-DD format
+     * @param fetchSize number of rows fetched from the database server at a time
+     * @return the cursor handing out the orders one day at a time, null if an error occurs
+     */
+    public OrderCursor retrieveOrdersBetween(String from, String to, int fetchSize) {
+        ConnectionPool.PooledConnection pooled = null;
+        try {
+            pooled = pool.acquire();
+            final String orderQuery = "select o.deliveryDate, o.orderNo, o.deliverTo, d.item from orders o " +
+                    "left join orderDetails d on o.orderNo = d.orderNo where o.deliveryDate between (?) and (?) " +
+                    "order by o.deliveryDate, o.orderNo";
+            PreparedStatement preparedStatement = pooled.prepare(orderQuery);
+            preparedStatement.setString(1, from);
+            preparedStatement.setString(2, to);
+            preparedStatement.setFetchSize(fetchSize);
+            // the cursor gives the connection back to the pool when it is closed
+            return new OrderCursor(pooled, preparedStatement.executeQuery());
+        } catch (SQLException ex) {
+            if (pooled != null) pooled.close();
+            System.err.println("Problem with db server connection");
+            System.err.println(ex.getMessage());
+            return null;
+        }
+    }
+
 
-        // create new deliveries and flightpath tables
-        statement.execute(
-                "create table deliveries(" +
-                        "orderNo char(8) ," +
-                        "deliveredTo varchar(19) ," +
-                        "costInPence int)"
-        );
-        statement.execute(
-                "create table flightpath(" +
-                        "orderNo char(8) ," +
-                        "fromLongitude double ," +
-                        "fromLatitude double ," +
-                        "angle integer ," +
-                        "toLongitude double ," +
-                        "toLatitude double)"
-        );
+    /**
+     * group the rows of orders joined with their items into one record per order
+     * @param resultSet rows with deliveryDate, orderNo, deliverTo and item columns, item is null for an order
+     *                  without items
+     * @return the orders in the order they first appear in the rows
+     * @throws SQLException if reading the rows fails
+     */
+    static List<OrderRecord> groupOrders(ResultSet resultSet) throws SQLException {
+        LinkedHashMap<String, OrderRecord> orders = new LinkedHashMap<>();
+        while (resultSet.next()) {
+            addRow(orders, resultSet);
+        }
+        return new ArrayList<>(orders.values());
+    }
+
+
+    /**
+     * add the item in the current row to its order, creating the order the first time it appears
+     * @param orders the orders read so far by their order number
+     * @param resultSet positioned on a row with deliveryDate, orderNo, deliverTo and item columns
+     * @throws SQLException if reading the row fails
+     */
+    static void addRow(java.util.Map<String, OrderRecord> orders, ResultSet resultSet) throws SQLException {
+        String orderNo = resultSet.getString("orderNo");
+        OrderRecord order = orders.get(orderNo);
+        if (order == null) {
+            order = new OrderRecord(orderNo, resultSet.getString("deliveryDate"), resultSet.getString("deliverTo"));
+            orders.put(orderNo, order);
+        }
+        String item = resultSet.getString("item");
+        if (item != null) order.items.add(item);
     }
 
 
@@ -72,19 +262,19 @@ public class DatabaseUtils {
     public List<String[]> retrieveOrders(String date) {
         List<String[]> orderInfo = new ArrayList<>();
 
-        try {
-            Connection connection = DriverManager.getConnection(this.server);
+        try (ConnectionPool.PooledConnection pooled = pool.acquire()) {
             final String orderQuery = "select * from orders where deliveryDate=(?)";
-            PreparedStatement preparedStatement = connection.prepareStatement(orderQuery);
+            PreparedStatement preparedStatement = pooled.prepare(orderQuery);
             preparedStatement.setString(1, date);
 
-            ResultSet resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                // store the order number and delivery address of one order
-                String[] order = new String[2];
-                order[0] = resultSet.getString("orderNo");
-                order[1] = resultSet.getString("deliverTo");
-                orderInfo.add(order);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    // store the order number and delivery address of one order
+                    String[] order = new String[2];
+                    order[0] = resultSet.getString("orderNo");
+                    order[1] = resultSet.getString("deliverTo");
+                    orderInfo.add(order);
+                }
             }
         } catch (SQLException ex) {
             System.err.println("Problem with db server connection");
@@ -104,15 +294,15 @@ public class DatabaseUtils {
     public List<String> getItems(String orderNo) {
         List<String> items = new ArrayList<>();
 
-        try {
-            Connection connection = DriverManager.getConnection(this.server);
+        try (ConnectionPool.PooledConnection pooled = pool.acquire()) {
             final String itemQuery = "select * from orderDetails where orderNo=(?)";
-            PreparedStatement preparedStatement = connection.prepareStatement(itemQuery);
+            PreparedStatement preparedStatement = pooled.prepare(itemQuery);
             preparedStatement.setString(1, orderNo);
 
-            ResultSet resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                items.add(resultSet.getString("item"));
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    items.add(resultSet.getString("item"));
+                }
             }
         } catch (SQLException ex) {
             System.err.println("Problem with db server connection");
@@ -125,60 +315,99 @@ public class DatabaseUtils {
 
 
     /**
-     * write into flightPath table
+     * queue a row for the flightPath table, the row is written by the writer thread in the background
+     * and failures to write it are reported by commit and flush
+     * @param deliveryDate the date of the order in YYYY-MM-DD format, null if unknown
      * @param orderNo the order number of the order currently delivered by the drone
      * @param from the starting location of the drone
      * @param angle angle the drone is moving towards
      * @param to the next location of the drone
+     * @return false if the row can't be queued, true otherwise
      */
-    public boolean storePath(String orderNo, LongLat from, int angle, LongLat to) {
-        try {
-            Connection connection = DriverManager.getConnection(server);
-            PreparedStatement preparedStatement = connection.prepareStatement(
-                    "insert into flightpath values (?, ?, ?, ?, ?, ?)"
-            );
-
-            preparedStatement.setString(1, orderNo);
-            preparedStatement.setDouble(2, from.lng);
-            preparedStatement.setDouble(3, from.lat);
-            preparedStatement.setInt(4, angle);
-            preparedStatement.setDouble(5, to.lng);
-            preparedStatement.setDouble(6, to.lat);
-
-            preparedStatement.execute();
-        } catch (SQLException ex) {
-            System.err.println("Problem with db server connection");
-            System.err.println(ex.getMessage());
-            return false;
-        }
-        return true;
+    public boolean storePath(String deliveryDate, String orderNo, LongLat from, int angle, LongLat to) {
+        AsyncDatabaseWriter writer = getWriter();
+        return writer != null && writer.storePath(deliveryDate, orderNo, from, angle, to);
     }
 
 
     /**
-     * write into the deliveries table
+     * queue a row for the deliveries table, the row is written by the writer thread in the background
+     * and failures to write it are reported by commit and flush
+     * @param deliveryDate the date of the order in YYYY-MM-DD format, null if unknown
      * @param orderNo the order number of the order being delivered
      * @param deliveredTo the w3w location of the delivery address
      * @param cost the delivery cost in pence
-     * @return true if no errors occurred, false otherwise
+     * @return false if the row can't be queued, true otherwise
      */
-    public boolean storeOrder(String orderNo, String deliveredTo, int cost) {
-        try {
-            Connection connection = DriverManager.getConnection(server);
-            PreparedStatement preparedStatement = connection.prepareStatement(
-                    "insert into deliveries values (?, ?, ?)"
-            );
+    public boolean storeOrder(String deliveryDate, String orderNo, String deliveredTo, int cost) {
+        AsyncDatabaseWriter writer = getWriter();
+        return writer != null && writer.storeOrder(deliveryDate, orderNo, deliveredTo, cost);
+    }
 
-            preparedStatement.setString(1, orderNo);
-            preparedStatement.setString(2, deliveredTo);
-            preparedStatement.setInt(3, cost);
 
-            preparedStatement.execute();
-        } catch (SQLException ex) {
-            System.err.println("Problem with db server connection");
-            System.err.println(ex.getMessage());
-            return false;
+    /**
+     * ask the writer thread to commit the rows queued so far, without waiting for it
+     * @return false if rows written by the writer thread failed since the last flush, true otherwise
+     */
+    public boolean commit() {
+        AsyncDatabaseWriter writer = this.writer;
+        return writer == null || writer.commit();
+    }
+
+
+    /**
+     * wait until every row queued so far is written to the database
+     * @return true if all the rows were written since the last flush, false otherwise
+     */
+    public boolean flush() {
+        AsyncDatabaseWriter writer = this.writer;
+        return writer == null || writer.flush();
+    }
+
+
+    /**
+     * start the writer thread with its own connection to the database if it isn't running yet, only the
+     * first row stored takes the lock
+     * @return the writer, null if the connection fails or failed before
+     */
+    private AsyncDatabaseWriter getWriter() {
+        AsyncDatabaseWriter current = writer;
+        if (current != null) return current;
+        synchronized (this) {
+            if (writer == null && !writerFailed) {
+                try {
+                    writer = new AsyncDatabaseWriter(new BatchWriter(pool.acquire()));
+                } catch (SQLException ex) {
+                    writerFailed = true;
+                    System.err.println("Problem with db server connection");
+                    System.err.println(ex.getMessage());
+                    return null;
+                }
+            }
+            return writer;
+        }
+    }
+
+
+    /**
+     * get the pool of connections to the database, for its hit and miss counts
+     * @return the connection pool
+     */
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+
+    /**
+     * write the queued rows, stop the writer thread and close the connections to the database, a view of
+     * one day only gives the connection of its writer back
+     */
+    @Override
+    public synchronized void close() {
+        if (writer != null) {
+            writer.close();
+            writer = null;
         }
-        return true;
+        if (ownsPool) pool.close();
     }
 }
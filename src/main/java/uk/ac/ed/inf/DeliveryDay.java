@@ -0,0 +1,177 @@
+package uk.ac.ed.inf;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+
+/**
+ * the deliveries of one day: a drone of its own starting at Appleton Tower from a copy of the base map of
+ * the world, the queue of the orders of the day, the result file and a writer to the database. Days share
+ * nothing but the world, the order pipeline and the database connections, which are all thread safe, so
+ * days can run at the same time
+ */
+public class DeliveryDay implements Callable<Boolean> {
+    /** the directory the result files are written to by default */
+    public static final Path DIRECTORY = Paths.get("..");
+
+    /** the date of the day */
+    public final LocalDate date;
+    /** the orders of the day with their items */
+    private final List<OrderRecord> records;
+    /** the base map and menus shared with the other days */
+    private final World world;
+    /** resolves the addresses of the orders and prices them */
+    private final OrderPipeline pipeline;
+    /** the database the rows of the day are written to, tagged with the date, through a view of the day */
+    private final DatabaseUtils databaseUtils;
+    /** the directory the result file of the day is written to */
+    private final Path directory;
+    /** the orders ordered by their delivery cost, from highest to lowest */
+    private final Queue<Order> orders = new PriorityQueue<>(Collections.reverseOrder());
+    /** number of orders of the day left out because they failed */
+    private int failures = 0;
+
+    /**
+     * create the deliveries of one day
+     * @param date the date of the day
+     * @param records the orders of the day with their items
+     * @param world the base map and menus shared with the other days
+     * @param pipeline resolves the addresses of the orders and prices them
+     * @param databaseUtils the database the rows of the day are written to
+     */
+    public DeliveryDay(LocalDate date, List<OrderRecord> records, World world, OrderPipeline pipeline,
+                       DatabaseUtils databaseUtils) {
+        this(date, records, world, pipeline, databaseUtils, DIRECTORY);
+    }
+
+    /**
+     * create the deliveries of one day writing its result file to a directory
+     * @param date the date of the day
+     * @param records the orders of the day with their items
+     * @param world the base map and menus shared with the other days
+     * @param pipeline resolves the addresses of the orders and prices them
+     * @param databaseUtils the database the rows of the day are written to
+     * @param directory the directory the result file is written to
+     */
+    public DeliveryDay(LocalDate date, List<OrderRecord> records, World world, OrderPipeline pipeline,
+                       DatabaseUtils databaseUtils, Path directory) {
+        this.date = date;
+        this.records = records;
+        this.world = world;
+        this.pipeline = pipeline;
+        this.databaseUtils = databaseUtils;
+        this.directory = directory;
+    }
+
+    /**
+     * deliver the orders of the day, writing the path to the result file of the day as the drone flies.
+     * The file is renamed to the name of a failed run if the drone fails
+     * @return true if the drone delivered the orders and returned to Appleton Tower, false otherwise
+     */
+    @Override
+    public Boolean call() {
+        // the rows of the day are committed by a writer of its own, apart from the other days
+        try (DatabaseUtils day = databaseUtils.forDay()) {
+            boolean delivered = deliver(day);
+            if (!day.flush()) {
+                System.err.printf("%s: Some deliveries or moves could not be written to the database\n", date);
+            }
+            return delivered;
+        }
+    }
+
+    /**
+     * deliver the orders of the day and write the path to the result file
+     * @param day the view of the database for the day
+     * @return true if the drone delivered the orders and returned to Appleton Tower, false otherwise
+     */
+    private boolean deliver(DatabaseUtils day) {
+        Drone drone = new Drone(LongLat.AT, "Appleton Tower", day, world.baseMap, date.toString());
+        addOrders(drone, pipeline.process(records));
+        failures = records.size() - orders.size();
+        if (failures > 0) {
+            System.err.printf("%s: %d of %d orders left out\n", date, failures, records.size());
+        }
+
+        Path outputFile = directory.resolve(outputFile(date, ""));
+        GeoJsonPathWriter pathWriter;
+        try {
+            pathWriter = new GeoJsonPathWriter(outputFile);
+        } catch (IOException ex) {
+            System.err.println("Error with writing to output file");
+            return false;
+        }
+        drone.setPathWriter(pathWriter);
+        boolean delivered = drone.deliverOrders(orders);
+        try {
+            pathWriter.close();
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+        }
+        if (!delivered) {
+            // keep the partial path under the name of a failed run
+            try {
+                Files.move(outputFile, directory.resolve(outputFile(date, "failed")), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ex) {
+                System.err.println(ex.getMessage());
+            }
+            System.err.printf("%s: Failed to deliver the orders or return to Appleton\n", date);
+        }
+        return delivered;
+    }
+
+    /**
+     * get the number of orders of the day left out because they failed, once the day ran
+     * @return the number of failed orders
+     */
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * get the name of the result file of a day
+     * @param date the date of the day
+     * @param suffix added after the date, e.g. "failed" for a failed run
+     * @return the name of the geojson file, without its directory
+     */
+    public static String outputFile(LocalDate date, String suffix) {
+        String day = String.format("%02d", date.getDayOfMonth());
+        String month = String.format("%02d", date.getMonthValue());
+        String year = String.valueOf(date.getYear());
+        return String.join("-", "drone", day, month, year) + suffix + ".geojson";
+    }
+
+    /**
+     * add the delivery addresses of priced orders to the map of the drone and queue the orders.
+     * The map of the drone isn't thread safe, so the orders are added one by one in the order
+     * of the database to keep the location ids the same on every run
+     */
+    private void addOrders(Drone drone, List<OrderPipeline.PricedOrder> priced) {
+        for (OrderPipeline.PricedOrder order : priced) {
+            // add all deliver destinations to the locations map as well
+            // I simply named all the destinations of orders with their
+            // corresponding w3w address
+            String w3w = order.record.deliverTo;
+            LongLat deliverTo = order.location.coordinates;
+            // add the delivery address to the map if it isn't already there
+            int locationId = drone.getLocationId(w3w);
+            if (locationId == -1) {
+                locationId = drone.addLocation(w3w, deliverTo);
+            }
+
+            // create an Order object containing the information just acquired
+            // and add it to the list of orders on the specified date
+            Order newOrder = new Order(order.record.orderNo, w3w, locationId, order.record.items, deliverTo,
+                    order.quote.getShops(), order.quote.cost);
+            orders.add(newOrder);
+        }
+    }
+}
@@ -14,9 +14,9 @@ public class Drone {
      */
     private LongLat currLoc;
     /**
-     * name of the start location of the drone of the current lag
+     * node id of the start location of the drone of the current lag
      */
-    private String currLocName;
+    private int currLocId;
     /**
      * angle to reach the next location
      */
@@ -30,9 +30,9 @@ public class Drone {
      */
     private LongLat targetLoc;
     /**
-     * the target location name of the current lag of journey
+     * the node id of the target location of the current lag of journey
      */
-    private String targetLocName;
+    private int targetLocId;
     /**
      * whether the drone is close to the current target location
      */
@@ -42,25 +42,37 @@ public class Drone {
      */
     private int moves;
     /**
-     * the name of the locations (keypoints) that the drone needs to follow for current order
+     * the node ids of the locations (keypoints) that the drone needs to follow for current order
      */
-    private final Queue<String> path = new LinkedList<>();
+    private final Queue<Integer> path = new LinkedList<>();
     /**
-     * the waypoints the drone needs to follow for a target location (keypoint)
+     * the node ids of the waypoints the drone needs to follow for a target location (keypoint)
      */
-    private final Queue<String> waypoints = new LinkedList<>();
+    private final Queue<Integer> waypoints = new LinkedList<>();
     /**
      * store the points the drone has taken and write it to the output geojson file
      */
-    private final List<Point> pathRec = new ArrayList<>();
+    private final PathRecorder pathRec = new PathRecorder();
+    /**
+     * writes the points straight to the output geojson file instead of pathRec, null if none
+     */
+    private GeoJsonPathWriter pathWriter;
     /**
      * to record the path for AStarMove
      */
     DatabaseUtils databaseUtils;
+    /**
+     * the date the rows written to the database are tagged with, in YYYY-MM-DD format, null if none
+     */
+    private final String deliveryDate;
     /**
      * map object storing useful locations for orders on the specified date
      */
-    private final Map map = new Map();
+    private final Map map;
+    /**
+     * A* planner reused for every detour around the no-fly zones
+     */
+    private final AStarPlanner planner;
 
 
     /**
@@ -69,8 +81,34 @@ public class Drone {
      * @param currLoc the starting location of the drone
      */
     public Drone(LongLat currLoc, String locName, DatabaseUtils databaseUtils) {
+        this(currLoc, locName, databaseUtils, new Map());
+    }
+
+    /**
+     * construct the Drone object with where the Drone is deployed from and a base map, e.g. the landmarks
+     * and shops with their shortest paths already solved. The drone works on its own copy of the base map
+     * so locations added for its orders don't change the base
+     *
+     * @param currLoc the starting location of the drone
+     * @param baseMap the map to start from
+     */
+    public Drone(LongLat currLoc, String locName, DatabaseUtils databaseUtils, Map baseMap) {
+        this(currLoc, locName, databaseUtils, baseMap, null);
+    }
+
+    /**
+     * construct the Drone object delivering the orders of one day, with a base map as above
+     *
+     * @param currLoc the starting location of the drone
+     * @param baseMap the map to start from
+     * @param deliveryDate the date of the orders, the rows written to the database are tagged with it
+     */
+    public Drone(LongLat currLoc, String locName, DatabaseUtils databaseUtils, Map baseMap, String deliveryDate) {
+        this.deliveryDate = deliveryDate;
+        this.map = new Map(baseMap);
+        this.planner = new AStarPlanner(map);
         this.currLoc = currLoc;
-        this.currLocName = locName;
+        this.currLocId = map.getId(locName);
         this.arrived = false;
         this.moves = 1500;
         this.databaseUtils = databaseUtils;
@@ -78,14 +116,17 @@ public class Drone {
 
 
     /**
-     * initialize the three arrays storing the graph information and run the all-pairs shortest path algorithm
+     * initialize the three arrays storing the graph information and run the all-pairs shortest path algorithm,
+     * locations added afterwards are inserted into the solved graph one at a time
      *
      * @param size the size of the graph, same as number of locations in the map
      */
     public void initializeGraph(int size) {
-        map.graph = new Integer[size][size];
-        map.next = new Integer[size][size];
-        map.intersect = new Boolean[size][size];
+        map.size = size;
+        map.graph = new int[size * size];
+        map.next = new int[size * size];
+        Arrays.fill(map.next, -1);
+        map.intersect = new BitSet(size * size);
         map.populateGraph();
         map.shortestPath();
     }
@@ -99,22 +140,32 @@ public class Drone {
      * the no-fly zones
      */
     public int findPath(String locA, String locB) {
-        int indA = map.locationNames.indexOf(locA);
-        int indB = map.locationNames.indexOf(locB);
+        return findPath(map.getId(locA), map.getId(locB));
+    }
+
+    /**
+     * same as findPath(String, String) but with the node ids of the locations
+     *
+     * @param indA the node id of the starting location
+     * @param indB the node id of the target location
+     * @return -1 if error occurs, 0 if no errors and no intersect, 1 if any part of the retrieved path intersect with
+     * the no-fly zones
+     */
+    public int findPath(int indA, int indB) {
         int curr = indA;
 
-        if (map.next[indA][indB] == null) {
+        if (indA == -1 || indB == -1 || map.getNext(indA, indB) == -1) {
             return -1;
         }
 
         // test if any part of the path intersect with no-fly zones, if intersects, clear waypoints previously recorded
         while (indA != indB) {
-            indA = map.next[indA][indB];
-            if (map.intersect[curr][indA]) {
+            indA = map.getNext(indA, indB);
+            if (map.isIntersect(curr, indA)) {
                 waypoints.clear();
                 return 1;
             }
-            waypoints.add(map.locationNames.get(indA));
+            waypoints.add(indA);
             curr = indA;
         }
 
@@ -150,9 +201,14 @@ public class Drone {
             }
 
             // if the program gets here, then the order will be carried out, so store it to our orders database table
-            databaseUtils.storeOrder(currOrder.orderNo, currOrder.locationName, currOrder.deliveryCost);
+            databaseUtils.storeOrder(deliveryDate, currOrder.orderNo, currOrder.locationName, currOrder.deliveryCost);
 
-            if (!followPathForOrder(currOrder.orderNo)) {
+            boolean followed = followPathForOrder(currOrder.orderNo);
+            // the rows of an order are committed together once it is finished, without waiting for the database
+            if (!databaseUtils.commit()) {
+                System.err.printf("Problem writing the flightpath of order %s\n", currOrder.orderNo);
+            }
+            if (!followed) {
                 System.err.printf("Failed to complete order %s due to planning error\n", currOrder.orderNo);
                 return false;
             }
@@ -164,6 +220,9 @@ public class Drone {
         if (!returnToAppleton()) {
             System.err.println("Error when returning to Appleton tower");
         }
+        if (!databaseUtils.commit()) {
+            System.err.println("Problem writing the flightpath back to Appleton tower");
+        }
 
         System.out.printf("Out of %d orders, %d orders were sent, made %d pence, %.3f money made, and returned to AT? %b\n", totalOrders, orderSent, totalEarned, (double) totalEarned / (double) totalCost, currLoc.closeTo(LongLat.AT));
         return true;
@@ -182,47 +241,47 @@ public class Drone {
      * false otherwise
      */
     private boolean checkAvailability(Order currOrder) {
-        // name of the current location of the drone
-        String start = currLocName;
-        // name of the delivery address
-        String end = currOrder.locationName;
+        // node id of the current location of the drone
+        int start = currLocId;
+        // node id of the delivery address
+        int end = currOrder.locationId;
         // the number of times the drone needs to hover
         int hover = 0;
         // if an order requires visiting two shops, make a quick comparison as well as checking the availability
-        if (currOrder.shops.size() == 2) {
+        if (currOrder.shopIds.length == 2) {
             // the drone needs to hover over the two shops and the delivery address
             hover = 3;
-            String shopAName = currOrder.shops.get(0).name;
-            String shopBName = currOrder.shops.get(1).name;
+            int shopA = currOrder.shopIds[0];
+            int shopB = currOrder.shopIds[1];
             // decide which ordering of shops to visit gives the shortest path
-            if (map.getDistance(start, shopAName) + (map.getDistance(end, shopBName)) >
-                    map.getDistance(start, shopBName) + (map.getDistance(end, shopAName))) {
+            if (map.getDistance(start, shopA) + (map.getDistance(end, shopB)) >
+                    map.getDistance(start, shopB) + (map.getDistance(end, shopA))) {
                 // decide whether the drone can finish the order and still have enough power to go back to AT
-                if (map.getDistance(start, shopBName) + map.getDistance(end, shopAName) + map.getDistance(shopAName, shopBName)
-                        + map.getDistance(end, "Appleton Tower") + hover > moves) {
+                if (map.getDistance(start, shopB) + map.getDistance(end, shopA) + map.getDistance(shopA, shopB)
+                        + map.getDistance(end, Map.AT_ID) + hover > moves) {
                     return false;
                 }
-                path.add(shopBName);
-                path.add(shopAName);
+                path.add(shopB);
+                path.add(shopA);
             } else {
-                if (map.getDistance(start, shopAName) + map.getDistance(end, shopBName) + map.getDistance(shopAName, shopBName)
-                        + map.getDistance(end, "Appleton Tower") + hover > moves) {
+                if (map.getDistance(start, shopA) + map.getDistance(end, shopB) + map.getDistance(shopA, shopB)
+                        + map.getDistance(end, Map.AT_ID) + hover > moves) {
                     return false;
                 }
-                path.add(shopAName);
-                path.add(shopBName);
+                path.add(shopA);
+                path.add(shopB);
             }
             path.add(end);
         } else {
             // the drone needs to hover over the shop and the delivery address
             hover = 2;
             // only one shop for this order, no comparison needed, just check availability
-            String shopName = currOrder.shops.get(0).name;
-            if (map.getDistance(start, shopName) + map.getDistance(shopName, end)
-                    + map.getDistance(end, "Appleton Tower") + hover > moves) {
+            int shop = currOrder.shopIds[0];
+            if (map.getDistance(start, shop) + map.getDistance(shop, end)
+                    + map.getDistance(end, Map.AT_ID) + hover > moves) {
                 return false;
             }
-            path.add(shopName);
+            path.add(shop);
             path.add(end);
         }
         return true;
@@ -235,7 +294,7 @@ public class Drone {
      * add a no-fly zones to the map the drone stores
      */
     public void addNFZ(Polygon nfz) {
-        map.noFlyZones.add(nfz);
+        map.addNoFlyZone(nfz);
     }
 
     /**
@@ -243,10 +302,20 @@ public class Drone {
      *
      * @param name name of the location
      * @param loc  LongLat object storing the coordinate of the locations
+     * @return the node id of the location in the map
      */
-    public void addLocation(String name, LongLat loc) {
-        map.locations.put(name, loc);
-        map.locationNames.add(name);
+    public int addLocation(String name, LongLat loc) {
+        return map.addLocation(name, loc);
+    }
+
+    /**
+     * get the node id of a location in the map
+     *
+     * @param name name of the location
+     * @return the node id of the location, -1 if it's not in the map
+     */
+    public int getLocationId(String name) {
+        return map.getId(name);
     }
 
     /**
@@ -255,8 +324,21 @@ public class Drone {
      * @param longLat the location of drone in current step
      */
     public void addToPathRec(LongLat longLat) {
-        Point point = Point.fromLngLat(longLat.lng, longLat.lat);
-        pathRec.add(point);
+        if (pathWriter != null) {
+            pathWriter.add(longLat.lng, longLat.lat);
+            return;
+        }
+        pathRec.add(longLat.lng, longLat.lat);
+    }
+
+    /**
+     * write the points of the path straight to a geojson file as the drone flies instead of
+     * keeping them in the path record
+     *
+     * @param pathWriter the writer of the output file, null to record the path again
+     */
+    public void setPathWriter(GeoJsonPathWriter pathWriter) {
+        this.pathWriter = pathWriter;
     }
 
     /**
@@ -268,6 +350,15 @@ public class Drone {
         return map.locations;
     }
 
+    /**
+     * return the map of the drone, e.g. to keep it as the base map of other drones once its graph is solved
+     *
+     * @return the map object
+     */
+    public Map getMap() {
+        return map;
+    }
+
     /**
      * return the locationsNames list in the map object
      *
@@ -278,11 +369,11 @@ public class Drone {
     }
 
     /**
-     * get the path recorded by the drone
+     * get the path recorded by the drone, the points written by a path writer aren't in it
      *
      * @return path record
      */
-    public List<Point> getPathRecord() {
+    public PathRecorder getPathRecord() {
         return pathRec;
     }
 
@@ -297,16 +388,16 @@ public class Drone {
      */
     private boolean followPathForOrder(String orderNo) {
         while (!path.isEmpty()) {
-            String keypoint = path.poll();
-            int intersected = findPath(currLocName, keypoint);
+            int keypoint = path.poll();
+            int intersected = findPath(currLocId, keypoint);
             if (intersected == -1) {
                 System.err.println("Problem retrieving the path");
             }
             // if any part of the path intersect with no-fly zones, use A star instead
             if (intersected == 1) {
-                Stack<Integer> plannedPath = planAStar(map.locations.get(keypoint));
+                Stack<Integer> plannedPath = planAStar(map.getLocation(keypoint));
                 moveAStar(orderNo, plannedPath);
-                currLocName = keypoint;
+                currLocId = keypoint;
                 // after reaching every keypoint hover for one step
                 hover();
                 planNextMove();
@@ -332,8 +423,8 @@ public class Drone {
     private boolean followWaypoints(String orderNo) {
         // follow the path of one lag of the journey to reach a keypoint in current order
         while (!waypoints.isEmpty()) {
-            String targetLoc = waypoints.poll();
-            setTargetLoc(map.locations.get(targetLoc), targetLoc);
+            int targetLoc = waypoints.poll();
+            setTargetLoc(map.getLocation(targetLoc), targetLoc);
 
             if (!followOneLag(orderNo)) {
                 return false;
@@ -367,7 +458,7 @@ public class Drone {
      * @return true if the drone made it back to the Tower, false otherwise
      */
     private boolean returnToAppleton() {
-        int intersected = findPath(currLocName, "Appleton Tower");
+        int intersected = findPath(currLocId, Map.AT_ID);
         if (intersected == -1) {
             System.err.println("Problem retrieving the path");
         }
@@ -385,11 +476,11 @@ public class Drone {
     /**
      * set the target location of the drone for one lag
      * @param targetLoc     the coordinate of the target location
-     * @param targetLocName the name of target location for one lag
+     * @param targetLocId the node id of target location for one lag
      */
-    public void setTargetLoc(LongLat targetLoc, String targetLocName) {
+    public void setTargetLoc(LongLat targetLoc, int targetLocId) {
         this.targetLoc = targetLoc;
-        this.targetLocName = targetLocName;
+        this.targetLocId = targetLocId;
         // a new lag has started so arrived is reset to false
         this.arrived = false;
     }
@@ -460,13 +551,13 @@ public class Drone {
     public void makeNextMove(String orderNo) {
         addToPathRec(nextLoc);
         // store flight path into the database flightpath table
-        if (!databaseUtils.storePath(orderNo, currLoc, angle, nextLoc)) {
+        if (!databaseUtils.storePath(deliveryDate, orderNo, currLoc, angle, nextLoc)) {
             System.err.println("Problem writing to flightpath table");
         }
         currLoc = nextLoc;
         if (currLoc.closeTo(targetLoc)) {
             arrived = true;
-            currLocName = targetLocName;
+            currLocId = targetLocId;
         }
         moves--;
     }
@@ -502,62 +593,7 @@ public class Drone {
      */
     public Stack<Integer> planAStar(LongLat target) {
         System.out.println("Using A Star");
-        LongLat cur = currLoc;
-        Node start = new Node(cur, 0, cur.distanceTo(target), 0, null);
-        // contains the node we have encountered but haven't analysed yet
-        Queue<Node> open = new PriorityQueue<>();
-        // contains node whose children are all added to the list or disqualified
-        List<Node> closed = new ArrayList<>();
-        // the best path to target given by the algorithm
-        Node solution = null;
-
-        open.add(start);
-
-        while (!open.isEmpty()) {
-            Node best = open.peek();
-            if (best.loc.closeTo(target)) {
-                solution = best;
-                break;
-            }
-
-            // drone can only move in angles with 10 degree of precision
-            for (int i = 0; i <= 350; i += 10) {
-                LongLat next = best.loc.nextPosition(i);
-                // if the next location is outside confinement area or the path there intersect
-                // with no-fly zone, it's not added to the lists
-                if (map.intersectNFZ(best.loc, next) || !next.isConfined()) continue;
-                Node child = new Node(next, best.g + 1, next.distanceTo(target), i, best);
-                // if a node has never been visited before
-                if (!open.contains(child) && !closed.contains(child)) {
-                    open.add(child);
-                } else {
-                    if (closed.contains(child)) {
-                        Node childSame = closed.get(closed.indexOf(child));
-                        if (childSame.f > child.f) {
-                            closed.remove(childSame);
-                            open.add(child);
-                        }
-                    }
-                }
-            }
-
-            open.remove(best);
-            closed.add(best);
-        }
-
-        if (solution == null) {
-            System.err.println("A star didn't find a solution");
-            return null;
-        }
-
-        Stack<Integer> aStar = new Stack<>();
-
-        while (solution.parent != null) {
-            aStar.push(solution.angleFromParent);
-            solution = solution.parent;
-        }
-
-        return aStar;
+        return planner.plan(currLoc, target);
     }
 
     /**
@@ -0,0 +1,110 @@
+package uk.ac.ed.inf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * writes the flight path of the drone to a geojson file while the drone flies, the header goes out when
+ * the file is opened, every point is appended to a buffer that is written to the file channel once it is
+ * full, and the structure is closed by close. Memory stays the same however long the path is, and the
+ * file is the same as writing a FeatureCollection of the LineString with GeoJsonUtils.writeGeoJson
+ */
+public class GeoJsonPathWriter implements AutoCloseable {
+    /** size of the buffer in bytes */
+    public static final int BUFFER_SIZE = 64 * 1024;
+    /** everything before the first point */
+    private static final String HEADER = "{\"type\":\"FeatureCollection\",\"features\":[{\"type\":\"Feature\","
+            + "\"geometry\":{\"type\":\"LineString\",\"coordinates\":[";
+    /** everything after the last point */
+    private static final String FOOTER = "]},\"properties\":{}}]}";
+
+    /** the output file */
+    private final FileChannel channel;
+    /** the bytes not written to the file yet */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    /** the text of one point, reused for every point */
+    private final StringBuilder point = new StringBuilder();
+    /** number of points written */
+    private int points = 0;
+    /** the first problem writing the file, reported by close */
+    private IOException error;
+
+    /**
+     * create or replace a geojson file and write its header
+     * @param file the output file
+     * @throws IOException if the file can't be opened
+     */
+    public GeoJsonPathWriter(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        put(HEADER);
+    }
+
+    /**
+     * append a point to the path
+     * @param lng the longitude of the point
+     * @param lat the latitude of the point
+     */
+    public void add(double lng, double lat) {
+        point.setLength(0);
+        if (points > 0) point.append(',');
+        // round the coordinates the way Mapbox does when it writes them
+        point.append('[').append(com.mapbox.geojson.utils.GeoJsonUtils.trim(lng))
+                .append(',').append(com.mapbox.geojson.utils.GeoJsonUtils.trim(lat)).append(']');
+        put(point);
+        points ++;
+    }
+
+    /**
+     * get the number of points in the path so far
+     * @return the number of points
+     */
+    public int getPoints() {
+        return points;
+    }
+
+    /**
+     * close the structure of the file and the file
+     * @throws IOException if writing the file failed at any point
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            put(FOOTER);
+            drain();
+        } finally {
+            channel.close();
+        }
+        if (error != null) throw error;
+    }
+
+    /**
+     * copy text into the buffer, writing the buffer to the file whenever it is full. The text of geojson
+     * paths is ASCII only, so every char is one byte
+     */
+    private void put(CharSequence text) {
+        for (int i = 0; i < text.length(); i ++) {
+            if (!buffer.hasRemaining()) drain();
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+
+    /**
+     * write the buffer to the file, after a problem the rest of the path is dropped
+     */
+    private void drain() {
+        buffer.flip();
+        try {
+            while (error == null && buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException ex) {
+            System.err.println("Error with writing to output file");
+            error = ex;
+        }
+        buffer.clear();
+    }
+}
@@ -39,15 +39,13 @@ public class GeoJsonUtils {
         // start HTTP connection with the server
         ServerUtils connection = new ServerUtils(url);
 
-        // the file content read from the menus json file on the web server
-        String content = connection.readStringFromUrl();
-        if (content == null) {
-            System.err.println("Trouble connecting to server");
+        // parse the geojson file on the web server as it is read
+        FeatureCollection featureCollection = connection.readJsonFromUrl(FeatureCollection.class);
+        if (featureCollection == null) {
+            System.err.println("Trouble reading the geojson file from the server");
             return null;
         }
-        FeatureCollection featureCollection = FeatureCollection.fromJson(content);
-        List<Feature> features = featureCollection.features();
-        return features;
+        return featureCollection.features();
     }
 
 
@@ -0,0 +1,183 @@
+package uk.ac.ed.inf;
+
+/**
+ * NoFlyZoneIndex bucketing the edges of the no-fly zones into a uniform grid laid over the
+ * confinement area (and the no-fly zones if they reach outside of it). A path is only tested
+ * against the edges registered in the cells it crosses, and only if the bounding box of their
+ * no-fly zone overlaps the bounding box of the path, so most moves of the drone far from any
+ * no-fly zone are answered without testing a single edge
+ */
+public class GridNoFlyZoneIndex implements NoFlyZoneIndex {
+    /** default width and height of a cell in degrees, about two moves of the drone */
+    public static final double CELL_SIZE = 2 * LongLat.distance;
+    /** upper limit on the number of cells along each axis */
+    private static final int MAX_CELLS = 256;
+    /** margin added around every range of cells so rounding never drops a cell a line touches */
+    private static final double EPSILON = 1e-12;
+
+    /** the edges of the no-fly zones */
+    private final NoFlyZoneEdges zones;
+    /** longitude of the west side of the grid */
+    private final double minX;
+    /** latitude of the south side of the grid */
+    private final double minY;
+    /** width of a cell in degrees of longitude */
+    private final double cellWidth;
+    /** height of a cell in degrees of latitude */
+    private final double cellHeight;
+    /** number of columns of the grid */
+    private final int columns;
+    /** number of rows of the grid */
+    private final int rows;
+    /** where the edges of each cell start in cellEdges, the edges of cell c are in [cellStart[c], cellStart[c + 1]) */
+    private final int[] cellStart;
+    /** the edges registered in each cell, one cell after the other */
+    private final int[] cellEdges;
+
+    /**
+     * build the index over the edges of the no-fly zones with the default cell size
+     * @param zones the edges of the no-fly zones
+     */
+    public GridNoFlyZoneIndex(NoFlyZoneEdges zones) {
+        this(zones, CELL_SIZE);
+    }
+
+    /**
+     * build the index over the edges of the no-fly zones
+     * @param zones the edges of the no-fly zones, copied so zones added later don't affect the index
+     * @param cellSize the width and height of a cell in degrees, cells get bigger if the grid would be too large
+     */
+    public GridNoFlyZoneIndex(NoFlyZoneEdges zones, double cellSize) {
+        this.zones = new NoFlyZoneEdges(zones);
+        int edgeCount = zones.edgeCount();
+        double[] edges = this.zones.edges();
+        double[] boxes = this.zones.boxes();
+
+        // the grid covers the confinement area and all the edges
+        double west = LongLat.FH.lng;
+        double south = LongLat.BBS.lat;
+        double east = LongLat.BBS.lng;
+        double north = LongLat.FH.lat;
+        for (int z = 0; z < zones.zoneCount(); z ++) {
+            west = Math.min(west, boxes[z * 4]);
+            south = Math.min(south, boxes[z * 4 + 1]);
+            east = Math.max(east, boxes[z * 4 + 2]);
+            north = Math.max(north, boxes[z * 4 + 3]);
+        }
+
+        minX = west;
+        minY = south;
+        columns = Math.max(1, Math.min(MAX_CELLS, (int) Math.ceil((east - west) / cellSize)));
+        rows = Math.max(1, Math.min(MAX_CELLS, (int) Math.ceil((north - south) / cellSize)));
+        cellWidth = Math.max((east - west) / columns, EPSILON);
+        cellHeight = Math.max((north - south) / rows, EPSILON);
+
+        // count the edges of every cell first, then fill them in, so the cells are packed in one array
+        int[] counts = new int[columns * rows + 1];
+        for (int i = 0; i < edgeCount; i ++) {
+            forEachCell(edges[i * 4], edges[i * 4 + 1], edges[i * 4 + 2], edges[i * 4 + 3], (cell, edge) -> counts[cell] ++, i);
+        }
+        cellStart = new int[columns * rows + 1];
+        for (int c = 0; c < columns * rows; c ++) {
+            cellStart[c + 1] = cellStart[c] + counts[c];
+        }
+        cellEdges = new int[cellStart[columns * rows]];
+        int[] filled = new int[columns * rows];
+        for (int i = 0; i < edgeCount; i ++) {
+            forEachCell(edges[i * 4], edges[i * 4 + 1], edges[i * 4 + 2], edges[i * 4 + 3],
+                    (cell, edge) -> cellEdges[cellStart[cell] + filled[cell] ++] = edge, i);
+        }
+    }
+
+    @Override
+    public boolean intersects(double x1, double y1, double x2, double y2) {
+        double west = Math.min(x1, x2);
+        double east = Math.max(x1, x2);
+        double south = Math.min(y1, y2);
+        double north = Math.max(y1, y2);
+
+        // most paths are nowhere near a no-fly zone, skip the grid completely for them
+        boolean nearZone = false;
+        for (int z = 0; z < zones.zoneCount(); z ++) {
+            if (zones.overlaps(z, west, south, east, north)) {
+                nearZone = true;
+                break;
+            }
+        }
+        if (!nearZone) return false;
+
+        // walk the columns the path crosses, and the rows the path crosses within each column
+        int[] edgeZones = zones.edgeZones();
+        int lastColumn = column(east + EPSILON);
+        for (int c = column(west - EPSILON); c <= lastColumn; c ++) {
+            long range = rowsInColumn(c, x1, y1, x2, y2);
+            int lastRow = (int) range;
+            for (int r = (int) (range >>> 32); r <= lastRow; r ++) {
+                int cell = r * columns + c;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k ++) {
+                    int edge = cellEdges[k];
+                    if (zones.overlaps(edgeZones[edge], west, south, east, north) && zones.crosses(edge, x1, y1, x2, y2)) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * get the column of the grid a longitude falls into, clamped to the grid
+     */
+    private int column(double x) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor((x - minX) / cellWidth)));
+    }
+
+    /**
+     * get the row of the grid a latitude falls into, clamped to the grid
+     */
+    private int row(double y) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - minY) / cellHeight)));
+    }
+
+    /**
+     * something done for each cell an edge is registered in
+     */
+    private interface CellVisitor {
+        void visit(int cell, int edge);
+    }
+
+    /**
+     * visit every cell crossed by an edge
+     */
+    private void forEachCell(double x1, double y1, double x2, double y2, CellVisitor visitor, int edge) {
+        int lastColumn = column(Math.max(x1, x2) + EPSILON);
+        for (int c = column(Math.min(x1, x2) - EPSILON); c <= lastColumn; c ++) {
+            long range = rowsInColumn(c, x1, y1, x2, y2);
+            int lastRow = (int) range;
+            for (int r = (int) (range >>> 32); r <= lastRow; r ++) {
+                visitor.visit(r * columns + c, edge);
+            }
+        }
+    }
+
+    /**
+     * find the rows a line crosses within one column of the grid, from the latitudes of the line
+     * where it enters and leaves the column
+     * @param c the column
+     * @return the first row in the upper 32 bits and the last row in the lower 32 bits
+     */
+    private long rowsInColumn(int c, double x1, double y1, double x2, double y2) {
+        double south = Math.min(y1, y2);
+        double north = Math.max(y1, y2);
+        double low = south;
+        double high = north;
+        if (x1 != x2) {
+            // the part of the line within this column
+            double from = Math.max(Math.min(x1, x2), minX + c * cellWidth);
+            double to = Math.min(Math.max(x1, x2), minX + (c + 1) * cellWidth);
+            double yFrom = y1 + (from - x1) * (y2 - y1) / (x2 - x1);
+            double yTo = y1 + (to - x1) * (y2 - y1) / (x2 - x1);
+            low = Math.max(south, Math.min(yFrom, yTo));
+            high = Math.min(north, Math.max(yFrom, yTo));
+        }
+        return ((long) row(low - EPSILON) << 32) | row(high + EPSILON);
+    }
+}
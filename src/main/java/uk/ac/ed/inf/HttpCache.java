@@ -0,0 +1,249 @@
+package uk.ac.ed.inf;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a directory keeping the files read from the web server together with their ETag and Last-Modified
+ * headers, so the next run only asks the server whether they changed (If-None-Match, If-Modified-Since)
+ * and reads them from the disk when they didn't. In offline mode the cached files are used without
+ * asking the server at all
+ */
+public class HttpCache {
+    /** the directory the files are kept in */
+    private final Path directory;
+    /** whether cached files are used without asking the server */
+    private final boolean offline;
+    /** number of files read from the cache, because they didn't change or in offline mode */
+    private final AtomicLong hits = new AtomicLong();
+    /** number of files read from the server */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * a file kept in the cache
+     */
+    public static class Entry {
+        /** the body of the file */
+        public final Path body;
+        /** the ETag header the server sent with the file, null if none */
+        public final String etag;
+        /** the Last-Modified header the server sent with the file, null if none */
+        public final String lastModified;
+
+        private Entry(Path body, String etag, String lastModified) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * use a directory as cache, it is created if it doesn't exist
+     * @param directory the directory the files are kept in
+     * @param offline whether cached files are used without asking the server
+     * @throws IOException if the directory can't be created
+     */
+    public HttpCache(Path directory, boolean offline) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.offline = offline;
+    }
+
+    /**
+     * check if the cached files are used without asking the server
+     * @return true in offline mode, false otherwise
+     */
+    public boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * find the cached copy of a file
+     * @param url the address of the file on the web server
+     * @return the cached file, null if the file isn't cached
+     */
+    public Entry lookup(String url) {
+        Path body = directory.resolve(key(url) + ".body");
+        Path meta = directory.resolve(key(url) + ".meta");
+        if (!Files.exists(body) || !Files.exists(meta)) return null;
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException ex) {
+            return null;
+        }
+        // guard against the unlikely case of two urls with the same key
+        if (!url.equals(properties.getProperty("url"))) return null;
+        return new Entry(body, properties.getProperty("etag"), properties.getProperty("lastModified"));
+    }
+
+    /**
+     * ask the server to only send the file if it changed since it was cached
+     * @param builder the request for the file
+     * @param entry the cached copy of the file, null if none
+     * @return the same builder
+     */
+    public HttpRequest.Builder conditional(HttpRequest.Builder builder, Entry entry) {
+        if (entry == null) return builder;
+        if (entry.etag != null) builder.header("If-None-Match", entry.etag);
+        if (entry.lastModified != null) builder.header("If-Modified-Since", entry.lastModified);
+        return builder;
+    }
+
+    /**
+     * open the cached copy of a file and count it as a hit
+     * @param entry the cached file
+     * @return the body of the file
+     * @throws IOException if the file can't be opened
+     */
+    public InputStream open(Entry entry) throws IOException {
+        InputStream in = Files.newInputStream(entry.body);
+        hits.incrementAndGet();
+        return in;
+    }
+
+    /**
+     * wrap the body of a response of the server so it is copied into the cache while it is read, the copy
+     * replaces the cached file once the body was read to its end and closed
+     * @param url the address of the file on the web server
+     * @param response the response with status 200
+     * @return the body of the response
+     * @throws IOException if the copy can't be created
+     */
+    public InputStream store(String url, HttpResponse<InputStream> response) throws IOException {
+        misses.incrementAndGet();
+        Properties properties = new Properties();
+        properties.setProperty("url", url);
+        response.headers().firstValue("ETag").ifPresent(etag -> properties.setProperty("etag", etag));
+        response.headers().firstValue("Last-Modified").ifPresent(date -> properties.setProperty("lastModified", date));
+        Path temp = Files.createTempFile(directory, "download", ".tmp");
+        return new Copy(response.body(), Files.newOutputStream(temp), temp, key(url), properties);
+    }
+
+    /**
+     * get the number of files read from the cache
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * get the number of files read from the server
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * get the name of the files of an url in the cache
+     */
+    private static String key(String url) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < 16; i ++) {
+                key.append(String.format("%02x", hash[i]));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            // every JVM has SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * a body of a response copied into a temporary file as it is read
+     */
+    private class Copy extends FilterInputStream {
+        /** writes the copy */
+        private final OutputStream out;
+        /** the temporary file holding the copy */
+        private final Path temp;
+        /** the name of the files of the url in the cache */
+        private final String key;
+        /** the url and the headers to keep with the file */
+        private final Properties properties;
+        /** whether reading or copying failed, the copy is thrown away then */
+        private boolean failed = false;
+
+        Copy(InputStream in, OutputStream out, Path temp, String key, Properties properties) {
+            super(in);
+            this.out = out;
+            this.temp = temp;
+            this.key = key;
+            this.properties = properties;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int b = super.read();
+                if (b != -1) out.write(b);
+                return b;
+            } catch (IOException ex) {
+                failed = true;
+                throw ex;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                int n = super.read(b, off, len);
+                if (n > 0) out.write(b, off, n);
+                return n;
+            } catch (IOException ex) {
+                failed = true;
+                throw ex;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // the parser may stop before the end of the body, copy what is left
+                if (!failed) {
+                    byte[] buffer = new byte[8192];
+                    while (read(buffer, 0, buffer.length) != -1) {
+                        // copied by read
+                    }
+                }
+            } catch (IOException ex) {
+                failed = true;
+            } finally {
+                out.close();
+                super.close();
+                commit();
+            }
+        }
+
+        /**
+         * replace the cached file with the copy, or throw the copy away if it is incomplete
+         */
+        private void commit() throws IOException {
+            if (failed) {
+                Files.deleteIfExists(temp);
+                return;
+            }
+            Files.move(temp, directory.resolve(key + ".body"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            try (Writer writer = Files.newBufferedWriter(directory.resolve(key + ".meta"), StandardCharsets.UTF_8)) {
+                properties.store(writer, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package uk.ac.ed.inf;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.mapbox.geojson.GeometryAdapterFactory;
+import com.mapbox.geojson.gson.GeoJsonAdapterFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * the Gson instance shared by everything reading JSON from the web server, with hand written type adapters
+ * for the classes of the menus and w3w files so no reflection is needed, and the adapters of Mapbox for
+ * GeoJson. Everything is read straight from the stream of the response without building a String first
+ */
+public class JsonUtils {
+    /** type of the content of the menus file */
+    public static final Type SHOP_LIST = new TypeToken<ArrayList<Shop>>() {}.getType();
+
+    /** the shared Gson, it is thread safe */
+    public static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapterFactory(GeoJsonAdapterFactory.create())
+            .registerTypeAdapterFactory(GeometryAdapterFactory.create())
+            .registerTypeAdapter(LongLat.class, new LongLatAdapter().nullSafe())
+            .registerTypeAdapter(Square.class, new SquareAdapter().nullSafe())
+            .registerTypeAdapter(Location.class, new LocationAdapter().nullSafe())
+            .registerTypeAdapter(Item.class, new ItemAdapter().nullSafe())
+            .registerTypeAdapter(Shop.class, new ShopAdapter().nullSafe())
+            .create();
+
+    /**
+     * parse JSON from a stream and close it
+     * @param in the stream of JSON
+     * @param type the type of the content
+     * @return the parsed content, null if the stream can't be read or parsed
+     */
+    public static <T> T parse(InputStream in, Type type) {
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, type);
+        } catch (IOException | JsonParseException ex) {
+            System.err.println("Issue with parsing of JSON file");
+            System.err.println(ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * reads and writes a LongLat as {"lng": ..., "lat": ...}
+     */
+    private static class LongLatAdapter extends TypeAdapter<LongLat> {
+        @Override
+        public void write(JsonWriter out, LongLat value) throws IOException {
+            out.beginObject();
+            out.name("lng").value(value.lng);
+            out.name("lat").value(value.lat);
+            out.endObject();
+        }
+
+        @Override
+        public LongLat read(JsonReader in) throws IOException {
+            double lng = Double.NaN;
+            double lat = Double.NaN;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "lng":
+                        lng = in.nextDouble();
+                        break;
+                    case "lat":
+                        lat = in.nextDouble();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            if (Double.isNaN(lng) || Double.isNaN(lat)) throw new JsonParseException("Coordinates without lng or lat");
+            return new LongLat(lng, lat);
+        }
+    }
+
+    /**
+     * reads and writes a Square as {"southwest": ..., "northeast": ...} like the w3w files
+     */
+    private static class SquareAdapter extends TypeAdapter<Square> {
+        /** reads the corners */
+        private final LongLatAdapter corner = new LongLatAdapter();
+
+        @Override
+        public void write(JsonWriter out, Square value) throws IOException {
+            out.beginObject();
+            if (value.southWest != null) {
+                out.name("southwest");
+                corner.write(out, value.southWest);
+            }
+            if (value.northEast != null) {
+                out.name("northeast");
+                corner.write(out, value.northEast);
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Square read(JsonReader in) throws IOException {
+            LongLat southWest = null;
+            LongLat northEast = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName().toLowerCase()) {
+                    case "southwest":
+                        southWest = corner.read(in);
+                        break;
+                    case "northeast":
+                        northEast = corner.read(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Square(southWest, northEast);
+        }
+    }
+
+    /**
+     * reads and writes a Location in the format of the details.json files of the w3w server
+     */
+    private static class LocationAdapter extends TypeAdapter<Location> {
+        /** reads the coordinates */
+        private final LongLatAdapter coordinates = new LongLatAdapter();
+        /** reads the square */
+        private final SquareAdapter square = new SquareAdapter();
+
+        @Override
+        public void write(JsonWriter out, Location value) throws IOException {
+            out.beginObject();
+            out.name("country").value(value.country);
+            if (value.square != null) {
+                out.name("square");
+                square.write(out, value.square);
+            }
+            out.name("nearestPlace").value(value.nearestPlace);
+            out.name("coordinates");
+            coordinates.write(out, value.coordinates);
+            out.name("words").value(value.words);
+            out.name("language").value(value.language);
+            out.name("map").value(value.map);
+            out.endObject();
+        }
+
+        @Override
+        public Location read(JsonReader in) throws IOException {
+            String country = null;
+            Square sq = null;
+            String nearestPlace = null;
+            LongLat coords = null;
+            String words = null;
+            String language = null;
+            String map = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "country":
+                        country = in.nextString();
+                        break;
+                    case "square":
+                        sq = square.read(in);
+                        break;
+                    case "nearestPlace":
+                        nearestPlace = in.nextString();
+                        break;
+                    case "coordinates":
+                        coords = coordinates.read(in);
+                        break;
+                    case "words":
+                        words = in.nextString();
+                        break;
+                    case "language":
+                        language = in.nextString();
+                        break;
+                    case "map":
+                        map = in.nextString();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            if (coords == null) throw new JsonParseException("Location without coordinates");
+            return new Location(country, sq, nearestPlace, coords, words, language, map);
+        }
+    }
+
+    /**
+     * reads and writes an Item as {"item": ..., "pence": ...} like the menus file
+     */
+    private static class ItemAdapter extends TypeAdapter<Item> {
+        @Override
+        public void write(JsonWriter out, Item value) throws IOException {
+            out.beginObject();
+            out.name("item").value(value.getName());
+            out.name("pence").value(value.getPrice());
+            out.endObject();
+        }
+
+        @Override
+        public Item read(JsonReader in) throws IOException {
+            String item = null;
+            Integer pence = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "item":
+                        item = in.nextString();
+                        break;
+                    case "pence":
+                        pence = in.nextInt();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Item(item, pence);
+        }
+    }
+
+    /**
+     * reads and writes a Shop as {"name": ..., "location": ..., "menu": [...]} like the menus file
+     */
+    private static class ShopAdapter extends TypeAdapter<Shop> {
+        /** reads the items of the menu */
+        private final ItemAdapter items = new ItemAdapter();
+
+        @Override
+        public void write(JsonWriter out, Shop value) throws IOException {
+            out.beginObject();
+            out.name("name").value(value.name);
+            out.name("location").value(value.location);
+            out.name("menu").beginArray();
+            for (Item item: value.getMenu()) {
+                items.write(out, item);
+            }
+            out.endArray();
+            out.endObject();
+        }
+
+        @Override
+        public Shop read(JsonReader in) throws IOException {
+            String name = null;
+            String location = null;
+            ArrayList<Item> menu = new ArrayList<>();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "name":
+                        name = in.nextString();
+                        break;
+                    case "location":
+                        location = in.nextString();
+                        break;
+                    case "menu":
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            menu.add(items.read(in));
+                        }
+                        in.endArray();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Shop(name, location, menu);
+        }
+    }
+}
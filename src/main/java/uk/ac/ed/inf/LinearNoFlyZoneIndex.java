@@ -0,0 +1,31 @@
+package uk.ac.ed.inf;
+
+/**
+ * The simplest NoFlyZoneIndex, checks the path against every edge of every no-fly zone whose
+ * bounding box overlaps the path
+ */
+public class LinearNoFlyZoneIndex implements NoFlyZoneIndex {
+    /** the edges of the no-fly zones */
+    private final NoFlyZoneEdges zones;
+
+    /**
+     * build the index over the edges of the no-fly zones
+     * @param zones the edges, copied so zones added later don't affect the index
+     */
+    public LinearNoFlyZoneIndex(NoFlyZoneEdges zones) {
+        this.zones = new NoFlyZoneEdges(zones);
+    }
+
+    @Override
+    public boolean intersects(double x1, double y1, double x2, double y2) {
+        double west = Math.min(x1, x2);
+        double east = Math.max(x1, x2);
+        double south = Math.min(y1, y2);
+        double north = Math.max(y1, y2);
+        int[] edgeZones = zones.edgeZones();
+        for (int e = 0; e < zones.edgeCount(); e ++) {
+            if (zones.overlaps(edgeZones[e], west, south, east, north) && zones.crosses(e, x1, y1, x2, y2)) return true;
+        }
+        return false;
+    }
+}
@@ -31,6 +31,19 @@ public class LongLat {
      * be considered equal in A* algorithm **/
     public static final double veryCloseThreshold = threshold / 5;
 
+    /** change in longitude after one move towards each of the 36 legal angles, indexed by angle / 10 */
+    private static final double[] STEP_LNG = new double[36];
+    /** change in latitude after one move towards each of the 36 legal angles, indexed by angle / 10 */
+    private static final double[] STEP_LAT = new double[36];
+
+    static {
+        // precompute the steps with the same expressions nextPosition used, so positions are identical
+        for (int i = 0; i < 36; i ++) {
+            STEP_LNG[i] = distance*Math.cos(Math.toRadians(i * 10));
+            STEP_LAT[i] = distance*Math.sin(Math.toRadians(i * 10));
+        }
+    }
+
 
     /**
      * construct a LongLat object with longitude and latitude data
@@ -47,11 +60,21 @@ public class LongLat {
      * @return true if it's within the confinement, false otherwise
      */
     public boolean isConfined() {
+        return isConfined(this.lng, this.lat);
+    }
+
+    /**
+     * check if a coordinate is within the confinement of FH, KFC, TOM and BBS
+     * @param lng longitude of the coordinate
+     * @param lat latitude of the coordinate
+     * @return true if it's within the confinement, false otherwise
+     */
+    public static boolean isConfined(double lng, double lat) {
         // check the coordinate against the key points on the upper left and lower right corner
-        return this.lng < BBS.lng &&
-               this.lng > FH.lng &&
-               this.lat < FH.lat &&
-               this.lat > BBS.lat;
+        return lng < BBS.lng &&
+               lng > FH.lng &&
+               lat < FH.lat &&
+               lat > BBS.lat;
     }
 
     /**
@@ -82,7 +105,44 @@ public class LongLat {
     public LongLat nextPosition(int angle) {
         // the drone is hovering when angle is -999
         if (angle == -999) return this;
-        return new LongLat(this.lng + distance*Math.cos(Math.toRadians(angle)), this.lat + distance*Math.sin(Math.toRadians(angle)));
+        return new LongLat(this.lng + stepLng(angle), this.lat + stepLat(angle));
+    }
+
+    /**
+     * calculate the position after moving or hovering for one step without creating a LongLat object
+     * @param lng longitude of the current position
+     * @param lat latitude of the current position
+     * @param angle the angle to move towards, -999 if the drone is hovering
+     * @param out array receiving the new longitude at index 0 and the new latitude at index 1
+     */
+    public static void nextPosition(double lng, double lat, int angle, double[] out) {
+        if (angle == -999) {
+            out[0] = lng;
+            out[1] = lat;
+            return;
+        }
+        out[0] = lng + stepLng(angle);
+        out[1] = lat + stepLat(angle);
+    }
+
+    /**
+     * get the change in longitude of one move, read from the precomputed table for the 36 legal angles
+     * @param angle the angle to move towards
+     * @return the change in longitude in degrees
+     */
+    public static double stepLng(int angle) {
+        if (angle >= 0 && angle <= 350 && angle % 10 == 0) return STEP_LNG[angle / 10];
+        return distance*Math.cos(Math.toRadians(angle));
+    }
+
+    /**
+     * get the change in latitude of one move, read from the precomputed table for the 36 legal angles
+     * @param angle the angle to move towards
+     * @return the change in latitude in degrees
+     */
+    public static double stepLat(int angle) {
+        if (angle >= 0 && angle <= 350 && angle % 10 == 0) return STEP_LAT[angle / 10];
+        return distance*Math.sin(Math.toRadians(angle));
     }
 
     /**
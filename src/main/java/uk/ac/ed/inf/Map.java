@@ -4,6 +4,9 @@ import com.mapbox.geojson.Point;
 import com.mapbox.geojson.Polygon;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
 
 /**
  * The representation of the map with all necessary information for the program
@@ -14,24 +17,111 @@ public class Map {
     /** names of all locations of interests, used for composing and indexing the
      * graph to search on */
     public final List<String> locationNames = new ArrayList<>();
+    /** the index (node id) of each location in locationNames and the graph, keyed by name */
+    public final HashMap<String, Integer> locationIds = new HashMap<>();
+    /** the coordinates of each location, indexed by node id */
+    public final List<LongLat> coordinates = new ArrayList<>();
+    /** node id of Appleton Tower, always the first location of the map */
+    public static final int AT_ID = 0;
+    /** number of locations in the graph, the width of the row-major matrices below */
+    public int size;
     /** the graph for the pathfinding algorithm to search on, it will store the shortest
-     * distance between two nodes after running the shortest path algorithm*/
-    public Integer[][] graph;
-    /** storing the vertices in shortest path algorithm for us to reconstruct the path */
-    public Integer[][] next;
-    /** storing information about whether the direct path between two locations intersect with no-fly zones */
-    public Boolean[][] intersect;
-    /** no-fly zones */
+     * distance between two nodes after running the shortest path algorithm, entry (i, j) is at i * size + j */
+    public int[] graph;
+    /** storing the vertices in shortest path algorithm for us to reconstruct the path, -1 if unknown */
+    public int[] next;
+    /** storing information about whether the direct path between two locations intersect with no-fly zones,
+     * bit (i, j) is at i * size + j */
+    public BitSet intersect;
+    /** no-fly zones, kept for reading and writing GeoJson, add them with addNoFlyZone */
     public final List<Polygon> noFlyZones = new ArrayList<Polygon>();
+    /** the edges of the no-fly zones flattened into primitive arrays for the intersection tests */
+    private final NoFlyZoneEdges zoneEdges;
+    /** builds the index over the edges of the no-fly zones used by intersectNFZ */
+    private Function<NoFlyZoneEdges, NoFlyZoneIndex> indexFactory = GridNoFlyZoneIndex::new;
+    /** the index over the edges of the no-fly zones */
+    private NoFlyZoneIndex nfzIndex;
+    /** number of no-fly zones in the index, -1 if it needs to be built */
+    private int indexedZones = -1;
+    /** whether the shortest paths are solved, locations added afterwards are inserted incrementally */
+    private boolean solved;
+    /** number of threads the shortest path algorithm can use */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    /** number of intermediate nodes applied to a row while it's in cache */
+    private static final int BLOCK = 64;
+    /** number of rows updated by one task of the shortest path algorithm */
+    private static final int ROW_TILE = 32;
+    /** graphs smaller than this are solved on the calling thread, starting threads costs more than it saves */
+    private static final int PARALLEL_THRESHOLD = 256;
 
     /**
      * initialize the map object by adding the first known point of interest Appleton Tower
      */
     public Map() {
+        zoneEdges = new NoFlyZoneEdges();
         // first add the starting and ending point Appleton Tower into our
         // points of interests
-        this.locations.put("Appleton Tower", LongLat.AT);
-        this.locationNames.add("Appleton Tower");
+        addLocation("Appleton Tower", LongLat.AT);
+    }
+
+    /**
+     * copy a map, so a base map with its graph already solved (e.g. landmarks and shops) can be
+     * reused and extended with the delivery addresses of each day without changing the base
+     * @param base the map to copy
+     */
+    public Map(Map base) {
+        locations.putAll(base.locations);
+        locationNames.addAll(base.locationNames);
+        locationIds.putAll(base.locationIds);
+        coordinates.addAll(base.coordinates);
+        noFlyZones.addAll(base.noFlyZones);
+        zoneEdges = new NoFlyZoneEdges(base.zoneEdges);
+        size = base.size;
+        graph = base.graph == null ? null : base.graph.clone();
+        next = base.next == null ? null : base.next.clone();
+        intersect = base.intersect == null ? null : (BitSet) base.intersect.clone();
+        solved = base.solved;
+        indexFactory = base.indexFactory;
+        // the index is immutable so the copy can share it
+        nfzIndex = base.nfzIndex;
+        indexedZones = base.indexedZones;
+        parallelism = base.parallelism;
+    }
+
+    /**
+     * add a point of interest to the map, it gets the next node id of the graph
+     * @param name name of the location
+     * @param loc LongLat object storing the coordinate of the location
+     * @return the node id of the location
+     */
+    public int addLocation(String name, LongLat loc) {
+        int id = locationNames.size();
+        locations.put(name, loc);
+        locationNames.add(name);
+        locationIds.put(name, id);
+        coordinates.add(loc);
+        // a location added after the shortest paths are solved is inserted into the solved graph
+        if (solved) insertLocation();
+        return id;
+    }
+
+    /**
+     * get the node id of a location from its name
+     * @param name name of the location
+     * @return the node id of the location, -1 if it's not in the map
+     */
+    public int getId(String name) {
+        Integer id = locationIds.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * get the coordinate of a location from its node id
+     * @param id node id of the location
+     * @return the coordinate of the location
+     */
+    public LongLat getLocation(int id) {
+        return coordinates.get(id);
     }
 
 
@@ -42,63 +132,285 @@ public class Map {
      * recommended but still can be taken if no other ways work
      */
     public void populateGraph() {
-        for (int i = 0; i < locationNames.size(); i ++) {
-            for (int j = i; j < locationNames.size(); j ++) {
+        int s = size;
+        for (int i = 0; i < s; i ++) {
+            LongLat locA = coordinates.get(i);
+            for (int j = i; j < s; j ++) {
                 // initialize distance to itself to 0, and the node to reach itself is itself
                 if (i == j) {
-                    graph[i][j] = 0;
-                    next[i][j] = i;
-                    intersect[i][j] = false;
+                    graph[i * s + j] = 0;
+                    next[i * s + j] = i;
                 }
 
                 // assign the estimated moves needed to travel between two nodes as weights
-                String locA = locationNames.get(i);
-                String locB = locationNames.get(j);
-                int weight = (int) Math.ceil(locations.get(locA).distanceTo(locations.get(locB)) * 1.01 / 0.00015);
-                if (intersectNFZ(locations.get(locA), locations.get(locB))) {
-                    // if the direct path between two nodes intersect with no-fly zone, it should take no more than
-                    // three times as much moves for A* to reach the destination
-                    weight = weight * 3;
-                    intersect[i][j] = true;
-                } else {
-                    intersect[i][j] = false;
-                }
-                intersect[j][i] = intersect[i][j];
-                graph[i][j] = weight;
-                graph[j][i] = weight;
+                LongLat locB = coordinates.get(j);
+                boolean intersects = intersectNFZ(locA, locB);
+                int weight = edgeWeight(locA, locB, intersects);
+                intersect.set(i * s + j, intersects);
+                intersect.set(j * s + i, intersects);
+                graph[i * s + j] = weight;
+                graph[j * s + i] = weight;
             }
         }
     }
 
 
+    /**
+     * the weight of the direct edge between two locations in the graph
+     * @param locA coordinate of one location
+     * @param locB coordinate of the other location
+     * @param intersects whether the direct path between them intersects with no-fly zones
+     * @return the estimated number of moves needed to travel between the two locations
+     */
+    private static int edgeWeight(LongLat locA, LongLat locB, boolean intersects) {
+        int weight = (int) Math.ceil(locA.distanceTo(locB) * 1.01 / 0.00015);
+        if (intersects) {
+            // if the direct path between two nodes intersect with no-fly zone, it should take no more than
+            // three times as much moves for A* to reach the destination
+            weight = weight * 3;
+        }
+        return weight;
+    }
+
+
     /**
      * Floyd-Warshall all pairs shortest path algorithm, graph will store the shortest number
-     * of moves needed between two locations, and next will help us retrieve the shortest path found
+     * of moves needed between two locations, and next will help us retrieve the shortest path found.
+     * The intermediate nodes are taken in blocks: the rows of the block are solved first and a
+     * snapshot of each intermediate row is kept, then all other rows apply the whole block while they
+     * are in cache. Those rows are independent of each other so they are split into tiles run on a
+     * ForkJoinPool. Every row still goes through exactly the same updates in the same order as the
+     * plain triple loop, so graph and next (including which path wins a tie) are identical to it
      */
     public void shortestPath() {
-        int s = locationNames.size();
+        int s = size;
 
         // initializes the paths between two nodes to the direct path between them
         for (int i = 0; i < s; i ++) {
             for (int j = 0; j < s; j++) {
-                next[i][j] = j;
+                next[i * s + j] = j;
             }
         }
 
-        // adding more and more nodes into the partial graph and check if the
-        // new node gives a shorter path between two nodes
-        for (int l = 0; l < s; l ++) {
-            for (int i = 0; i < s; i ++) {
-                for (int j = 0; j < s; j ++) {
-                    if (graph[i][j] > graph[i][l] + graph[l][j]) {
-                        graph[i][j] = graph[i][l] + graph[l][j];
-                        next[i][j] = next[i][l];
+        ForkJoinPool pool = null;
+        if (parallelism > 1 && s >= PARALLEL_THRESHOLD) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        try {
+            // rows of the current block of intermediate nodes as they are when they are used
+            int[] snapshot = new int[Math.min(BLOCK, s) * s];
+            for (int k0 = 0; k0 < s; k0 += BLOCK) {
+                int k1 = Math.min(k0 + BLOCK, s);
+                // adding the nodes of the block into the partial graph for the rows of the block first
+                for (int l = k0; l < k1; l ++) {
+                    for (int i = k0; i < k1; i ++) {
+                        relax(i, l, graph, l * s);
                     }
+                    // row l can't change while l is the intermediate node, keep it for the other rows
+                    System.arraycopy(graph, l * s, snapshot, (l - k0) * s, s);
+                }
+                // then check if the new nodes give a shorter path between two nodes for all other rows
+                if (pool == null) {
+                    relaxRows(0, s, k0, k1, snapshot);
+                } else {
+                    pool.invoke(new RowTiles(0, s, k0, k1, snapshot));
                 }
             }
+        } finally {
+            if (pool != null) pool.shutdown();
+        }
+        solved = true;
+    }
+
+    /**
+     * add a new location to a graph whose shortest paths are already solved, in O(n^2) instead of
+     * running Floyd-Warshall again. A shortest path through the new node v visits it only once, so
+     * the paths from v are its direct edges followed by the already known shortest paths, and every
+     * other pair only needs to check the path going through v. The distances are the same as solving
+     * the whole graph again, when several paths tie the one recorded in next may be a different one
+     * of the same length
+     */
+    private void insertLocation() {
+        int n = size;
+        int v = n;
+        int s = n + 1;
+        LongLat locV = coordinates.get(v);
+
+        // copy the solved matrices into matrices one row and one column wider
+        int[] newGraph = new int[s * s];
+        int[] newNext = new int[s * s];
+        BitSet newIntersect = new BitSet(s * s);
+        for (int i = 0; i < n; i ++) {
+            System.arraycopy(graph, i * n, newGraph, i * s, n);
+            System.arraycopy(next, i * n, newNext, i * s, n);
+            for (int j = intersect.nextSetBit(i * n); j >= 0 && j < (i + 1) * n; j = intersect.nextSetBit(j + 1)) {
+                newIntersect.set(i * s + j - i * n);
+            }
+        }
+
+        // direct edges between the new location and all others
+        int[] edge = new int[n];
+        for (int i = 0; i < n; i ++) {
+            boolean intersects = intersectNFZ(coordinates.get(i), locV);
+            edge[i] = edgeWeight(coordinates.get(i), locV, intersects);
+            newIntersect.set(i * s + v, intersects);
+            newIntersect.set(v * s + i, intersects);
+        }
+
+        // shortest paths from v: take a direct edge to some location i then the shortest path from i
+        int rowV = v * s;
+        for (int j = 0; j < n; j ++) {
+            newGraph[rowV + j] = edge[j];
+            newNext[rowV + j] = j;
+        }
+        for (int i = 0; i < n; i ++) {
+            int rowI = i * s;
+            for (int j = 0; j < n; j ++) {
+                int through = edge[i] + newGraph[rowI + j];
+                if (newGraph[rowV + j] > through) {
+                    newGraph[rowV + j] = through;
+                    newNext[rowV + j] = i;
+                }
+            }
+        }
+        newGraph[rowV + v] = 0;
+        newNext[rowV + v] = v;
+
+        // the graph is undirected, so the path from i to v is the path from v to i reversed
+        for (int i = 0; i < n; i ++) {
+            int first = newNext[rowV + i];
+            newGraph[i * s + v] = newGraph[rowV + i];
+            newNext[i * s + v] = first == i ? v : newNext[i * s + first];
+        }
+
+        // check if going through v gives a shorter path between two old locations
+        for (int i = 0; i < n; i ++) {
+            int rowI = i * s;
+            int toV = newGraph[rowI + v];
+            int nextToV = newNext[rowI + v];
+            for (int j = 0; j < n; j ++) {
+                int through = toV + newGraph[rowV + j];
+                if (newGraph[rowI + j] > through) {
+                    newGraph[rowI + j] = through;
+                    newNext[rowI + j] = nextToV;
+                }
+            }
+        }
+
+        size = s;
+        graph = newGraph;
+        next = newNext;
+        intersect = newIntersect;
+    }
+
+    /**
+     * set the number of threads the shortest path algorithm can use
+     * @param parallelism number of threads, 1 runs the algorithm on the calling thread only
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * check if intermediate node l gives a shorter path from node i to every other node
+     * @param i the row to update
+     * @param l the intermediate node
+     * @param rows the array holding the distances from l
+     * @param rowL index of the distance from l to node 0 in rows
+     */
+    private void relax(int i, int l, int[] rows, int rowL) {
+        int s = size;
+        int rowI = i * s;
+        // graph[i][l] and next[i][l] can't change while l is the intermediate node
+        int toL = graph[rowI + l];
+        int nextToL = next[rowI + l];
+        for (int j = 0; j < s; j ++) {
+            int through = toL + rows[rowL + j];
+            if (graph[rowI + j] > through) {
+                graph[rowI + j] = through;
+                next[rowI + j] = nextToL;
+            }
+        }
+    }
+
+    /**
+     * apply the intermediate nodes of a block, in order, to the rows in [from, to) outside the block
+     * @param from the first row
+     * @param to one past the last row
+     * @param k0 the first intermediate node of the block
+     * @param k1 one past the last intermediate node of the block
+     * @param snapshot the rows of the block's intermediate nodes
+     */
+    private void relaxRows(int from, int to, int k0, int k1, int[] snapshot) {
+        for (int i = from; i < to; i ++) {
+            if (i >= k0 && i < k1) continue;
+            for (int l = k0; l < k1; l ++) {
+                relax(i, l, snapshot, (l - k0) * size);
+            }
+        }
+    }
+
+    /**
+     * a tile of rows updated by one block of intermediate nodes, split in half until it's small enough
+     */
+    private class RowTiles extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+        private final int k0;
+        private final int k1;
+        private final int[] snapshot;
+
+        RowTiles(int from, int to, int k0, int k1, int[] snapshot) {
+            this.from = from;
+            this.to = to;
+            this.k0 = k0;
+            this.k1 = k1;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= ROW_TILE) {
+                relaxRows(from, to, k0, k1, snapshot);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RowTiles(from, mid, k0, k1, snapshot), new RowTiles(mid, to, k0, k1, snapshot));
         }
     }
 
+    /**
+     * get the weight of the edge between two locations, the shortest number of moves once
+     * the shortest path algorithm is run
+     * @param i index of one location
+     * @param j index of the other location
+     * @return the number of moves between location i and location j
+     */
+    public int getGraph(int i, int j) {
+        return graph[i * size + j];
+    }
+
+    /**
+     * get the next location on the shortest path between two locations
+     * @param i index of the starting location
+     * @param j index of the target location
+     * @return index of the location to go to next, -1 if the path is unknown
+     */
+    public int getNext(int i, int j) {
+        return next[i * size + j];
+    }
+
+    /**
+     * check whether the direct path between two locations intersect with no-fly zones
+     * @param i index of one location
+     * @param j index of the other location
+     * @return true if the direct path intersects with no-fly zones
+     */
+    public boolean isIntersect(int i, int j) {
+        return intersect.get(i * size + j);
+    }
+
     /**
      * check if a line represented by p1 and p2 intercept with any edges of no-fly zones, also if p2 is
      * within our confinement area
@@ -107,15 +419,48 @@ public class Map {
      * @return false if flight from p1 to p2 doesn't go into the no-fly zones or out of confinement area, true otherwise
      */
     public boolean intersectNFZ(LongLat p1, LongLat p2) {
-        if (!p2.isConfined()) return true;
-        Point point1 = Point.fromLngLat(p1.lng, p1.lat);
-        Point point2 = Point.fromLngLat(p2.lng, p2.lat);
+        return intersectNFZ(p1.lng, p1.lat, p2.lng, p2.lat);
+    }
 
-        for (Polygon polygon: noFlyZones) {
-            if (pathInterceptPolygon(point1, point2, polygon)) return true;
+    /**
+     * same as intersectNFZ(LongLat, LongLat) but takes the coordinates directly, so planners
+     * probing many moves don't need to create LongLat or Point objects
+     * @param lng1 longitude of the starting point
+     * @param lat1 latitude of the starting point
+     * @param lng2 longitude of the target location
+     * @param lat2 latitude of the target location
+     * @return false if flight from p1 to p2 doesn't go into the no-fly zones or out of confinement area, true otherwise
+     */
+    public boolean intersectNFZ(double lng1, double lat1, double lng2, double lat2) {
+        if (!LongLat.isConfined(lng2, lat2)) return true;
+        // build the index again if no-fly zones were added since it was last built
+        if (indexedZones != noFlyZones.size()) {
+            // flatten the zones added to the list directly instead of through addNoFlyZone
+            for (int i = zoneEdges.zoneCount(); i < noFlyZones.size(); i ++) {
+                zoneEdges.add(noFlyZones.get(i));
+            }
+            nfzIndex = indexFactory.apply(zoneEdges);
+            indexedZones = noFlyZones.size();
         }
+        return nfzIndex.intersects(lng1, lat1, lng2, lat2);
+    }
 
-        return false;
+    /**
+     * add a no-fly zone to the map, its edges are flattened into primitive arrays once here
+     * @param polygon the no-fly zone
+     */
+    public void addNoFlyZone(Polygon polygon) {
+        noFlyZones.add(polygon);
+        zoneEdges.add(polygon);
+    }
+
+    /**
+     * choose how the index over the edges of the no-fly zones is built, GridNoFlyZoneIndex by default
+     * @param indexFactory builds the index from the edges of the no-fly zones
+     */
+    public void setNoFlyZoneIndex(Function<NoFlyZoneEdges, NoFlyZoneIndex> indexFactory) {
+        this.indexFactory = indexFactory;
+        this.indexedZones = -1;
     }
 
     /**
@@ -126,10 +471,26 @@ public class Map {
      * @return true if the path intercept with the outer perimeter of the no-fly zone
      */
     public static boolean pathInterceptPolygon(Point p1, Point p2, Polygon polygon) {
+        return pathInterceptPolygon(p1.longitude(), p1.latitude(), p2.longitude(), p2.latitude(), polygon);
+    }
+
+    /**
+     * check if a line given by the coordinates of its ends passes through the outer perimeter of a Polygon
+     * @param x1 longitude of one end of the path
+     * @param y1 latitude of one end of the path
+     * @param x2 longitude of another end of the path
+     * @param y2 latitude of another end of the path
+     * @param polygon the polygon representing one of the no-fly zones
+     * @return true if the path intercept with the outer perimeter of the no-fly zone
+     */
+    public static boolean pathInterceptPolygon(double x1, double y1, double x2, double y2, Polygon polygon) {
         List<Point> lines = polygon.coordinates().get(0);
         // check the interception of the path with all line segments of the perimeter
+        Point c = lines.get(0);
         for (int i = 0; i < lines.size() - 1; i ++) {
-            if (checkIntercept(p1, p2, lines.get(i), lines.get((i + 1)))) return true;
+            Point d = lines.get(i + 1);
+            if (checkIntercept(x1, y1, x2, y2, c.longitude(), c.latitude(), d.longitude(), d.latitude())) return true;
+            c = d;
         }
         return false;
     }
@@ -140,32 +501,34 @@ public class Map {
      * https://bryceboe.com/2006/10/23/line-segment-intersection-algorithm/
      * using the counterclockwise helper function to deal with interception problems, cannot
      * deal with collinearity but suffice for our use. More detailed description in document.
-     * @param A one endpoint of line 1
-     * @param B another endpoint of line 1
-     * @param C one endpoint of line 2
-     * @param D another endpoint of line 2
+     * @param ax longitude of one endpoint A of line 1
+     * @param ay latitude of A
+     * @param bx longitude of another endpoint B of line 1
+     * @param by latitude of B
+     * @param cx longitude of one endpoint C of line 2
+     * @param cy latitude of C
+     * @param dx longitude of another endpoint D of line 2
+     * @param dy latitude of D
      * @return true if line 1 intercept with line 2
      */
-    private static boolean checkIntercept(Point A, Point B, Point C, Point D) {
-        return counterClockWise(A, C, D) != counterClockWise(B, C, D) &&
-                counterClockWise(A, B, C) != counterClockWise(A, B, D);
+    static boolean checkIntercept(double ax, double ay, double bx, double by,
+                                          double cx, double cy, double dx, double dy) {
+        return counterClockWise(ax, ay, cx, cy, dx, dy) != counterClockWise(bx, by, cx, cy, dx, dy) &&
+                counterClockWise(ax, ay, bx, by, cx, cy) != counterClockWise(ax, ay, bx, by, dx, dy);
     }
 
 
     /**
      * determines if three points A, B, C are listed in a counterclockwise order
-     * @param A Point A
-     * @param B Point B
-     * @param C Point C
+     * @param Ax longitude of Point A
+     * @param Ay latitude of Point A
+     * @param Bx longitude of Point B
+     * @param By latitude of Point B
+     * @param Cx longitude of Point C
+     * @param Cy latitude of Point C
      * @return true if A, B, C are listed in a counterclockwise order
      */
-    private static boolean counterClockWise(Point A, Point B, Point C) {
-        double Ax = A.coordinates().get(0);
-        double Ay = A.coordinates().get(1);
-        double Bx = B.coordinates().get(0);
-        double By = B.coordinates().get(1);
-        double Cx = C.coordinates().get(0);
-        double Cy = C.coordinates().get(1);
+    private static boolean counterClockWise(double Ax, double Ay, double Bx, double By, double Cx, double Cy) {
         // if slope of AB is less than the slope of AC, then A, B, C are listed in a counterclockwise orientation
         // use this form to avoid problems of divide by 0 when encounters vertical lines
         return (Cy - Ay) * (Bx - Ax) > (By - Ay) * (Cx - Ax);
@@ -180,6 +543,16 @@ public class Map {
      * @return the moves the drone need to travel between locA and locB
      */
     public int getDistance(String locA, String locB) {
-        return graph[locationNames.indexOf(locA)][locationNames.indexOf(locB)];
+        return getGraph(getId(locA), getId(locB));
+    }
+
+    /**
+     * same as getDistance(String, String) but with node ids, used on the hot path of the delivery loop
+     * @param locA the node id of one location
+     * @param locB the node id of the other location
+     * @return the moves the drone need to travel between locA and locB
+     */
+    public int getDistance(int locA, int locB) {
+        return getGraph(locA, locB);
     }
 }
@@ -0,0 +1,160 @@
+package uk.ac.ed.inf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * the menus compiled into a table from the item names to their shop id and price packed into one long,
+ * so pricing an order needs no boxing, no copies of the items and no shared state. The shops of an order
+ * are collected in a bitmask of shop ids. The index never changes once built, so any number of threads
+ * can price orders with it at the same time
+ */
+public class MenuIndex {
+    /** most shops an index can hold, one bit of the mask each */
+    public static final int MAX_SHOPS = Long.SIZE;
+    /** most items an order can have */
+    public static final int MAX_ITEMS = 4;
+    /** most shops the items of an order can come from */
+    public static final int MAX_SHOPS_PER_ORDER = 2;
+    /** delivery charge added to every order, in pence */
+    public static final int DELIVERY_CHARGE = 50;
+
+    /** the shops, indexed by shop id */
+    private final List<Shop> shops;
+    /** the item names, open addressing with linear probing, null for a free slot */
+    private final String[] names;
+    /** the shop id in the upper and the price in the lower 32 bits, in the same slot as the name */
+    private final long[] entries;
+    /** mask turning a hash into a slot, the table size is a power of 2 */
+    private final int mask;
+
+    /**
+     * the price of an order and the shops its items come from
+     */
+    public static class Quote {
+        /** the price of the order including the delivery charge, in pence */
+        public final int cost;
+        /** bit i is set if the shop with id i sells one of the items */
+        public final long shopMask;
+        /** the shops of the index the quote was made by */
+        private final List<Shop> shops;
+
+        private Quote(int cost, long shopMask, List<Shop> shops) {
+            this.cost = cost;
+            this.shopMask = shopMask;
+            this.shops = shops;
+        }
+
+        /**
+         * get the ids of the shops to visit for the order
+         * @return the shop ids from lowest to highest
+         */
+        public int[] getShopIds() {
+            int[] ids = new int[Long.bitCount(shopMask)];
+            long rest = shopMask;
+            for (int i = 0; i < ids.length; i ++) {
+                ids[i] = Long.numberOfTrailingZeros(rest);
+                rest &= rest - 1;
+            }
+            return ids;
+        }
+
+        /**
+         * get the shops to visit for the order
+         * @return the shops ordered by shop id
+         */
+        public List<Shop> getShops() {
+            List<Shop> visited = new ArrayList<>(Long.bitCount(shopMask));
+            for (int id: getShopIds()) {
+                visited.add(shops.get(id));
+            }
+            return visited;
+        }
+    }
+
+    /**
+     * compile the menus of some shops, the shop ids follow the order of the list. If an item is sold
+     * by several shops the last one is used
+     * @param shops the shops read from the menus file
+     * @throws IllegalArgumentException if there are more shops than MAX_SHOPS
+     */
+    public MenuIndex(List<Shop> shops) {
+        if (shops.size() > MAX_SHOPS) {
+            throw new IllegalArgumentException("A menu index can't hold more than " + MAX_SHOPS + " shops");
+        }
+        this.shops = Collections.unmodifiableList(new ArrayList<>(shops));
+        int items = 0;
+        for (Shop shop: shops) {
+            items += shop.getMenu().size();
+        }
+        // keep the table at most half full so probes stay short
+        int size = Integer.highestOneBit(Math.max(items, 1) * 2 - 1) << 1;
+        names = new String[size];
+        entries = new long[size];
+        mask = size - 1;
+        for (int id = 0; id < shops.size(); id ++) {
+            for (Item item: shops.get(id).getMenu()) {
+                int slot = find(item.getName());
+                names[slot] = item.getName();
+                entries[slot] = ((long) id << 32) | (item.getPrice() & 0xffffffffL);
+            }
+        }
+    }
+
+    /**
+     * price an order
+     * @param items the names of the items in the order
+     * @return the price and shops of the order, null if it has no or more than MAX_ITEMS items, an item
+     * isn't sold by any shop, or the items come from more than MAX_SHOPS_PER_ORDER shops
+     */
+    public Quote price(List<String> items) {
+        int count = items.size();
+        if (count < 1 || count > MAX_ITEMS) return null;
+        int cost = DELIVERY_CHARGE;
+        long shopMask = 0;
+        for (int i = 0; i < count; i ++) {
+            String item = items.get(i);
+            int slot = find(item);
+            if (names[slot] == null) return null;
+            long entry = entries[slot];
+            shopMask |= 1L << (int) (entry >>> 32);
+            cost += (int) entry;
+        }
+        if (Long.bitCount(shopMask) > MAX_SHOPS_PER_ORDER) {
+            System.err.println("an order shouldn't have items from more than 2 shops");
+            return null;
+        }
+        return new Quote(cost, shopMask, shops);
+    }
+
+    /**
+     * get a shop by its id
+     * @param id the shop id
+     * @return the shop
+     */
+    public Shop getShop(int id) {
+        return shops.get(id);
+    }
+
+    /**
+     * get every shop of the index
+     * @return the shops indexed by shop id, the list can't be modified
+     */
+    public List<Shop> getShops() {
+        return shops;
+    }
+
+    /**
+     * find the slot of an item name
+     * @return the slot holding the name, or the free slot it would go in
+     */
+    private int find(String name) {
+        int h = name.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (names[slot] != null && !names[slot].equals(name)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -1,9 +1,5 @@
 package uk.ac.ed.inf;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-
-import java.lang.reflect.Type;
 import java.util.*;
 
 
@@ -13,114 +9,98 @@ import java.util.*;
  * delivery cost of an order, as well as if an order is legal
  */
 public class Menus {
-    /** record the shop where a food item is sold (itemName, shop) */
-    public final HashMap<String, Shop> provider = new HashMap<>();
-    /** record the prices of food items (itemName, price) */
-    public final HashMap<String, Integer> prices = new HashMap<>();
-    /** record the shops that's visited for one order */
-    private final HashSet<Shop> shopped = new HashSet<>();
+    /** the menus compiled for pricing orders, empty if the menus can't be read */
+    private final MenuIndex index;
 
 
     /**
      * initializing by connecting to the server and read the content
-     * of the JSON file and store them into HashMaps storing each item's
-     * price and provider information
+     * of the JSON file and compile the price and shop of each item
+     * into the index
      * @param name the machine name of the online server
      * @param port the port of connection to the online server
      */
     public Menus(String name, String port) {
-        // url of the server location
-        String server = "HTTP://" + name + ":" + port;
-        // location of the menus file on the server
-        String AddressToMenu = server + "/menus/menus.json";
-        // start HTTP connection with the server
-        ServerUtils connection = new ServerUtils(AddressToMenu);
-
-        // the file content read from the menus json file on the web server
-        String shopsJSON = connection.readStringFromUrl();
-        if (shopsJSON == null) {
-            System.err.println("Trouble connecting to server");
-            return;
-        }
+        this(readShops(name, port));
+    }
 
-        // parse the menu with Gson into a list of Shop instances
-        ArrayList<Shop> shops = getShops(shopsJSON);
-        if (shops == null) return;
+    /**
+     * create the menus of some shops
+     * @param shops the shops in the menus file
+     */
+    private Menus(List<Shop> shops) {
+        this.index = new MenuIndex(shops);
+    }
 
-        // populate provider and prices Hash tables with information from the server
-        getItemInfo(shops);
+    /**
+     * create the menus from the shops parsed from the menus file already
+     * @param shops the shops in the menus file
+     * @return the menus
+     */
+    public static Menus fromShops(ArrayList<Shop> shops) {
+        return new Menus(shops);
     }
 
     /**
-     * parse the information from the server into a list of shops
-     * @param menus the String read from the Json file
-     * @return a list of Shops that appear in the orders
+     * read the shops from the menus file on the server
+     * @param name the machine name of the online server
+     * @param port the port of connection to the online server
+     * @return the shops, no shops if the file can't be read
      */
-    private ArrayList<Shop> getShops(String menus) {
-        Type shopListType = new TypeToken<ArrayList<Shop>>() {}.getType();
-        ArrayList<Shop> shops = new Gson().fromJson(menus, shopListType);
+    private static List<Shop> readShops(String name, String port) {
+        // start HTTP connection with the server
+        ServerUtils connection = new ServerUtils(url(name, port));
+
+        // parse the menus json file on the web server into a list of Shop instances as it is read
+        ArrayList<Shop> shops = connection.readJsonFromUrl(JsonUtils.SHOP_LIST);
         if (shops == null) {
-            System.err.println("Issue with parsing of JSON file");
-            return null;
+            System.err.println("Trouble reading the menus from the server");
+            return Collections.emptyList();
         }
         return shops;
     }
 
-
     /**
-     * get the useful information about an item: which shop is it sold in,
-     * and for what price. Then stores them in the HashMaps providers and prices
-     * @param shops the Shop instances parsed from the server
+     * get the address of the menus file on the server
+     * @param name the machine name of the online server
+     * @param port the port of connection to the online server
+     * @return the url of the menus json file
      */
-    private void getItemInfo(ArrayList<Shop> shops) {
-        // go through the list of Shops and populate the provider and prices HashMap
-        for (Shop shop: shops) {
-            ArrayList<Item> menu = shop.getMenu();
-            for (Item i : menu) {
-                provider.put(i.getName(), shop);
-                prices.put(i.getName(), i.getPrice());
-            }
-        }
+    public static String url(String name, String port) {
+        // url of the server location
+        String server = "HTTP://" + name + ":" + port;
+        // location of the menus file on the server
+        return server + "/menus/menus.json";
     }
 
-
     /**
      * check if an order complies with our delivery policy and calculate
-     * the total price if it's legal, and populate the shopped set
+     * the total price if it's legal
      * @param items items from an order
      * @return -1 if item number or shop composition is against our
      * policy or not all food can be found, returns delivery cost otherwise
      */
     public int getDeliveryCost(String... items) {
-        // an order can only have [1, 4] items
-        if (items.length < 1 || items.length > 4) return -1;
-        // clear the set recording the name of shops visited for one order
-        shopped.clear();
-        // 50p of delivery charges
-        int val = 50;
-
-        ArrayList<String> itemList = new ArrayList<>(Arrays.asList(items));
+        MenuIndex.Quote quote = index.price(Arrays.asList(items));
+        return quote == null ? -1 : quote.cost;
+    }
 
-        for (String item: itemList) {
-            // if item cannot be found in any shop, return error value -1
-            if (!provider.containsKey(item)) return -1;
-            shopped.add(provider.get(item));
-            val += prices.get(item);
-        }
-        // if items from one order is composed of food from more than two shops, it's
-        // against our delivery policy
-        if (shopped.size() > 2) {
-            System.err.println("an order shouldn't have items from more than 2 shops");
-            return -1;
-        }
-        return val;
+    /**
+     * check if an order complies with our delivery policy and find its delivery cost and the shops
+     * to visit for it, safe to call from several threads at once
+     * @param items items from an order
+     * @return the delivery cost and shops of the order, null if it's against our policy or not
+     * all food can be found
+     */
+    public MenuIndex.Quote quote(List<String> items) {
+        return index.price(items);
     }
 
     /**
-     * get the shops to visit for an order after calculating its delivery cost
-     * @return the set of Shop objects representing the shops that need to be visited for one order
+     * get the menus compiled for pricing orders
+     * @return the index of the items of all shops
      */
-    public HashSet<Shop> getShopped() {
-        return shopped;
+    public MenuIndex getIndex() {
+        return index;
     }
 }
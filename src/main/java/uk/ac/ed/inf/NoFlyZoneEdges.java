@@ -0,0 +1,141 @@
+package uk.ac.ed.inf;
+
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The edges of the no-fly zones flattened into primitive arrays once, when a zone is added, so the
+ * intersection tests on the hot path never touch Mapbox objects or unbox coordinates. The Polygons
+ * are only kept by the Map for reading and writing GeoJson
+ */
+public class NoFlyZoneEdges {
+    /** x1, y1, x2, y2 of each edge in a row */
+    private double[] edges = new double[64];
+    /** the index of the no-fly zone each edge belongs to */
+    private int[] edgeZone = new int[16];
+    /** bounding box of each no-fly zone, min x, min y, max x, max y in a row */
+    private double[] boxes = new double[16];
+    /** number of edges */
+    private int edgeCount;
+    /** number of no-fly zones */
+    private int zoneCount;
+
+    /**
+     * create an empty set of edges
+     */
+    public NoFlyZoneEdges() {
+    }
+
+    /**
+     * copy the edges of other no-fly zones
+     * @param other the edges to copy
+     */
+    public NoFlyZoneEdges(NoFlyZoneEdges other) {
+        edges = other.edges.clone();
+        edgeZone = other.edgeZone.clone();
+        boxes = other.boxes.clone();
+        edgeCount = other.edgeCount;
+        zoneCount = other.zoneCount;
+    }
+
+    /**
+     * flatten the outer perimeter of a no-fly zone into edges
+     * @param polygon the no-fly zone
+     */
+    public void add(Polygon polygon) {
+        List<Point> perimeter = polygon.coordinates().get(0);
+        int zone = zoneCount ++;
+        if (boxes.length < zoneCount * 4) boxes = Arrays.copyOf(boxes, boxes.length * 2);
+        double west = Double.POSITIVE_INFINITY;
+        double south = Double.POSITIVE_INFINITY;
+        double east = Double.NEGATIVE_INFINITY;
+        double north = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < perimeter.size(); i ++) {
+            double x = perimeter.get(i).longitude();
+            double y = perimeter.get(i).latitude();
+            west = Math.min(west, x);
+            south = Math.min(south, y);
+            east = Math.max(east, x);
+            north = Math.max(north, y);
+            if (i == perimeter.size() - 1) break;
+
+            if (edgeZone.length == edgeCount) {
+                edgeZone = Arrays.copyOf(edgeZone, edgeCount * 2);
+                edges = Arrays.copyOf(edges, edgeCount * 8);
+            }
+            int e = edgeCount * 4;
+            edges[e] = x;
+            edges[e + 1] = y;
+            edges[e + 2] = perimeter.get(i + 1).longitude();
+            edges[e + 3] = perimeter.get(i + 1).latitude();
+            edgeZone[edgeCount ++] = zone;
+        }
+        boxes[zone * 4] = west;
+        boxes[zone * 4 + 1] = south;
+        boxes[zone * 4 + 2] = east;
+        boxes[zone * 4 + 3] = north;
+    }
+
+    /**
+     * get the number of edges of all no-fly zones
+     * @return the number of edges
+     */
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * get the number of no-fly zones
+     * @return the number of no-fly zones
+     */
+    public int zoneCount() {
+        return zoneCount;
+    }
+
+    /**
+     * get the edges, only the first edgeCount() * 4 values are used
+     * @return x1, y1, x2, y2 of each edge in a row
+     */
+    public double[] edges() {
+        return edges;
+    }
+
+    /**
+     * get the no-fly zone of each edge, only the first edgeCount() values are used
+     * @return the index of the no-fly zone of each edge
+     */
+    public int[] edgeZones() {
+        return edgeZone;
+    }
+
+    /**
+     * get the bounding boxes of the no-fly zones, only the first zoneCount() * 4 values are used
+     * @return min x, min y, max x, max y of each no-fly zone in a row
+     */
+    public double[] boxes() {
+        return boxes;
+    }
+
+    /**
+     * check if the line from (x1, y1) to (x2, y2) crosses an edge
+     * @param e the index of the edge
+     * @return true if the line intercepts the edge
+     */
+    public boolean crosses(int e, double x1, double y1, double x2, double y2) {
+        int i = e * 4;
+        return Map.checkIntercept(x1, y1, x2, y2, edges[i], edges[i + 1], edges[i + 2], edges[i + 3]);
+    }
+
+    /**
+     * check if the bounding box of a no-fly zone overlaps a box
+     * @param zone the index of the no-fly zone
+     * @return true if the boxes overlap
+     */
+    public boolean overlaps(int zone, double west, double south, double east, double north) {
+        int z = zone * 4;
+        return boxes[z] <= east && boxes[z + 2] >= west && boxes[z + 1] <= north && boxes[z + 3] >= south;
+    }
+}
@@ -0,0 +1,17 @@
+package uk.ac.ed.inf;
+
+/**
+ * An index over the edges of the no-fly zones answering whether a path crosses any of them,
+ * Map.intersectNFZ delegates to one of these so the search structure can be swapped
+ */
+public interface NoFlyZoneIndex {
+    /**
+     * check if the line from (x1, y1) to (x2, y2) crosses the perimeter of any no-fly zone
+     * @param x1 longitude of one end of the path
+     * @param y1 latitude of one end of the path
+     * @param x2 longitude of another end of the path
+     * @param y2 latitude of another end of the path
+     * @return true if the path intercepts with a no-fly zone
+     */
+    boolean intersects(double x1, double y1, double x2, double y2);
+}
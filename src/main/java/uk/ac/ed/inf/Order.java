@@ -11,12 +11,16 @@ public class Order implements Comparable<Order> {
     public final String orderNo;
     /** the name of the order delivery address, simply its corresponding w3w word */
     public final String locationName;
+    /** the node id of the delivery address in the map of the drone */
+    public final int locationId;
     /** the items contained in the order */
     public final List<String> items;
     /** the coordinate of the delivery address */
     public final LongLat deliverAddress;
     /** the list of the shops that needs to be visited for an order */
     public final List<Shop> shops;
+    /** the node ids of the shops that needs to be visited, in the same order as shops */
+    public final int[] shopIds;
     /** how much the user needs to pay for this order */
     public final int deliveryCost;
 
@@ -25,17 +29,23 @@ public class Order implements Comparable<Order> {
      * initialize the order object
      * @param orderNo the order number
      * @param locationName the name of delivery address of the order (the w3w representation of the address)
+     * @param locationId the node id of the delivery address in the map of the drone
      * @param items the items contained by the order
      * @param deliverAddress the coordinate of the delivery address
      * @param shops the list of the shops that needs to be visited for an order
      * @param deliveryCost how much the user needs to pay for this order
      */
-    public Order(String orderNo, String locationName, List<String> items, LongLat deliverAddress, List<Shop> shops, int deliveryCost) {
+    public Order(String orderNo, String locationName, int locationId, List<String> items, LongLat deliverAddress, List<Shop> shops, int deliveryCost) {
         this.orderNo = orderNo;
         this.locationName = locationName;
+        this.locationId = locationId;
         this.items = items;
         this.deliverAddress = deliverAddress;
         this.shops = shops;
+        this.shopIds = new int[shops.size()];
+        for (int i = 0; i < shopIds.length; i ++) {
+            shopIds[i] = shops.get(i).getNodeId();
+        }
         this.deliveryCost = deliveryCost;
     }
 
@@ -0,0 +1,70 @@
+package uk.ac.ed.inf;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * hands out the orders of a range of dates one day at a time while reading them from a single cursor
+ * ordered by deliveryDate and orderNo, only the orders of the day being handed out are kept in memory
+ */
+public class OrderCursor implements AutoCloseable {
+    /** default number of rows fetched from the database server at a time */
+    public static final int FETCH_SIZE = 500;
+
+    /** the connection the cursor is open on, given back to the pool when the cursor is closed */
+    private final ConnectionPool.PooledConnection pooled;
+    /** rows of orders joined with their items, ordered by deliveryDate and orderNo */
+    private final ResultSet resultSet;
+    /** whether the result set is positioned on a row that hasn't been read yet */
+    private boolean hasRow;
+    /** whether the cursor has been closed */
+    private boolean closed = false;
+
+    /**
+     * start reading the orders from a result set
+     * @param pooled the connection the result set is open on
+     * @param resultSet rows with deliveryDate, orderNo, deliverTo and item columns, ordered by deliveryDate
+     *                  and orderNo
+     * @throws SQLException if reading the first row fails
+     */
+    public OrderCursor(ConnectionPool.PooledConnection pooled, ResultSet resultSet) throws SQLException {
+        this.pooled = pooled;
+        this.resultSet = resultSet;
+        this.hasRow = resultSet.next();
+    }
+
+    /**
+     * read the orders of the next day that has any
+     * @return the orders of that day with their items, null if there are no more orders
+     * @throws SQLException if reading the rows fails
+     */
+    public List<OrderRecord> nextDay() throws SQLException {
+        if (closed || !hasRow) return null;
+        String date = resultSet.getString("deliveryDate");
+        LinkedHashMap<String, OrderRecord> orders = new LinkedHashMap<>();
+        do {
+            DatabaseUtils.addRow(orders, resultSet);
+            hasRow = resultSet.next();
+        } while (hasRow && date.equals(resultSet.getString("deliveryDate")));
+        return new ArrayList<>(orders.values());
+    }
+
+    /**
+     * close the result set and give the connection back to the pool
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            resultSet.close();
+        } catch (SQLException ex) {
+            System.err.println("Problem closing the orders cursor");
+            System.err.println(ex.getMessage());
+        }
+        pooled.close();
+    }
+}
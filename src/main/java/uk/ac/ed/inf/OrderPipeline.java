@@ -0,0 +1,127 @@
+package uk.ac.ed.inf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * turns the orders read from the database into priced orders on a fixed number of threads, each order
+ * goes through resolving its delivery address and pricing its items on its own, so many orders are in
+ * progress at once and an order that fails is left out without stopping the others
+ */
+public class OrderPipeline implements AutoCloseable {
+    /** default number of threads, one for each core */
+    public static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** decodes the delivery addresses */
+    private final W3WUtils wUtils;
+    /** prices the items */
+    private final Menus menus;
+    /** runs the stages of the orders */
+    private final ExecutorService executor;
+    /** number of orders left out so far */
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * an order with its delivery address resolved and its items priced
+     */
+    public static class PricedOrder {
+        /** the order as it is stored in the database */
+        public final OrderRecord record;
+        /** the location of the delivery address */
+        public final Location location;
+        /** the delivery cost and shops of the order */
+        public final MenuIndex.Quote quote;
+
+        private PricedOrder(OrderRecord record, Location location, MenuIndex.Quote quote) {
+            this.record = record;
+            this.location = location;
+            this.quote = quote;
+        }
+    }
+
+    /**
+     * create a pipeline with one thread for each core
+     * @param wUtils decodes the delivery addresses
+     * @param menus prices the items
+     */
+    public OrderPipeline(W3WUtils wUtils, Menus menus) {
+        this(wUtils, menus, THREADS);
+    }
+
+    /**
+     * create a pipeline
+     * @param wUtils decodes the delivery addresses
+     * @param menus prices the items
+     * @param threads number of orders processed at the same time
+     */
+    public OrderPipeline(W3WUtils wUtils, Menus menus, int threads) {
+        this.wUtils = wUtils;
+        this.menus = menus;
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "order-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * resolve the delivery addresses of orders and price them, and wait until all of them are done
+     * @param records the orders read from the database, with their items
+     * @return the priced orders in the same order as the records, without the orders that failed
+     */
+    public List<PricedOrder> process(List<OrderRecord> records) {
+        List<CompletableFuture<PricedOrder>> stages = new ArrayList<>(records.size());
+        for (OrderRecord record: records) {
+            stages.add(CompletableFuture.supplyAsync(() -> wUtils.convertW3W(record.deliverTo), executor)
+                    .thenApplyAsync(loc -> price(record, loc), executor)
+                    .exceptionally(ex -> fail(record, ex.getMessage())));
+        }
+        List<PricedOrder> priced = new ArrayList<>(records.size());
+        for (CompletableFuture<PricedOrder> stage: stages) {
+            PricedOrder order = stage.join();
+            if (order != null) priced.add(order);
+        }
+        return priced;
+    }
+
+    /**
+     * get the number of orders left out because they failed
+     * @return the number of failed orders
+     */
+    public int getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * stop the threads of the pipeline
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * price an order once its delivery address is resolved
+     * @return the priced order, null if the address or items are wrong
+     */
+    private PricedOrder price(OrderRecord record, Location loc) {
+        if (loc == null) return fail(record, "Problem reading W3W address file");
+        MenuIndex.Quote quote = menus.quote(record.items);
+        if (quote == null) return fail(record, "Problem reading the menus file or illegal order");
+        return new PricedOrder(record, loc, quote);
+    }
+
+    /**
+     * report an order that is left out
+     * @return null
+     */
+    private PricedOrder fail(OrderRecord record, String reason) {
+        failures.incrementAndGet();
+        System.err.println("Skipping order " + record.orderNo + ": " + reason);
+        return null;
+    }
+}
@@ -0,0 +1,31 @@
+package uk.ac.ed.inf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * an order as it is stored in the orders and orderDetails tables, before its delivery address is
+ * resolved and its cost is computed
+ */
+public class OrderRecord {
+    /** order number */
+    public final String orderNo;
+    /** the date the order is delivered on, in YYYY-MM-DD format */
+    public final String deliveryDate;
+    /** the w3w address the order is delivered to */
+    public final String deliverTo;
+    /** the items contained in the order */
+    public final List<String> items = new ArrayList<>();
+
+    /**
+     * create an order record without items
+     * @param orderNo the order number
+     * @param deliveryDate the date the order is delivered on, in YYYY-MM-DD format
+     * @param deliverTo the w3w address the order is delivered to
+     */
+    public OrderRecord(String orderNo, String deliveryDate, String deliverTo) {
+        this.orderNo = orderNo;
+        this.deliveryDate = deliveryDate;
+        this.deliverTo = deliverTo;
+    }
+}
@@ -0,0 +1,118 @@
+package uk.ac.ed.inf;
+
+import com.mapbox.geojson.LineString;
+import com.mapbox.geojson.Point;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * the points of a flight path kept as longitude and latitude pairs in one growable double array, 16 bytes
+ * a point instead of a Mapbox Point with its list of boxed coordinates. Points are only created when the
+ * path is turned into a LineString, or not at all when it is given to a GeoJsonPathWriter
+ */
+public class PathRecorder {
+    /** initial number of points the recorder has room for */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /** longitude of point i at 2 * i, latitude at 2 * i + 1 */
+    private double[] coordinates = new double[2 * INITIAL_CAPACITY];
+    /** number of points recorded */
+    private int size = 0;
+
+    /**
+     * append a point to the path
+     * @param lng the longitude of the point
+     * @param lat the latitude of the point
+     */
+    public void add(double lng, double lat) {
+        if (2 * size == coordinates.length) {
+            coordinates = Arrays.copyOf(coordinates, 2 * coordinates.length);
+        }
+        coordinates[2 * size] = lng;
+        coordinates[2 * size + 1] = lat;
+        size ++;
+    }
+
+    /**
+     * get the number of points in the path
+     * @return the number of points
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * get the longitude of a point
+     * @param i the index of the point
+     * @return the longitude
+     */
+    public double getLng(int i) {
+        checkIndex(i);
+        return coordinates[2 * i];
+    }
+
+    /**
+     * get the latitude of a point
+     * @param i the index of the point
+     * @return the latitude
+     */
+    public double getLat(int i) {
+        checkIndex(i);
+        return coordinates[2 * i + 1];
+    }
+
+    /**
+     * forget every point, keeping the memory for the next path
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * view the path as a list of Mapbox points, a point is created whenever it is read and changes to the
+     * path show in the view
+     * @return the points of the path, the list can't be modified
+     */
+    public List<Point> asPoints() {
+        return new AbstractList<>() {
+            @Override
+            public Point get(int i) {
+                return Point.fromLngLat(getLng(i), getLat(i));
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * create a LineString of the path for writing it with GeoJsonUtils
+     * @return the LineString of the points recorded so far, later points aren't in it
+     */
+    public LineString toLineString() {
+        // the LineString keeps the list it is given, so it gets a copy instead of the view
+        return LineString.fromLngLats(new ArrayList<>(asPoints()));
+    }
+
+    /**
+     * append every point of the path to a geojson file without creating any Point
+     * @param writer the writer of the output file
+     */
+    public void writeTo(GeoJsonPathWriter writer) {
+        for (int i = 0; i < size; i ++) {
+            writer.add(coordinates[2 * i], coordinates[2 * i + 1]);
+        }
+    }
+
+    /**
+     * make sure a point was recorded
+     */
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Point " + i + " of a path of " + size);
+    }
+}
@@ -1,10 +1,13 @@
 package uk.ac.ed.inf;
 
 import java.io.*;
+import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
@@ -15,6 +18,8 @@ public class ServerUtils {
     private final String url;
     /** static http client for connection */
     private static final HttpClient client = HttpClient.newHttpClient();
+    /** the cache of the files read from the server, null for none */
+    private static volatile HttpCache cache;
 
     /**
      * constructor that assigns value to the url attribute
@@ -24,23 +29,138 @@ public class ServerUtils {
         this.url = url;
     }
 
+    /**
+     * keep the files read from the web server in a cache directory from now on
+     * @param httpCache the cache, null to read everything from the server again
+     */
+    public static void setCache(HttpCache httpCache) {
+        cache = httpCache;
+    }
+
     /**
      * read a file from a web server
      * @return the content read from the file as a String, returns null if problems occur at connection
      */
     public String readStringFromUrl() {
+        try (InputStream in = open()) {
+            return in == null ? null : new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * read a JSON file from a web server, parsing it straight from the stream of the response
+     * with the shared Gson of JsonUtils
+     * @param type the type of the content of the file
+     * @return the parsed content, null if problems occur at connection or parsing
+     */
+    public <T> T readJsonFromUrl(Type type) {
+        InputStream in = open();
+        return in == null ? null : JsonUtils.parse(in, type);
+    }
+
+    /**
+     * read a JSON file from a web server like readJsonFromUrl, without blocking the calling thread
+     * while waiting for the server
+     * @param type the type of the content of the file
+     * @return completes with the parsed content, or with null if problems occur at connection or parsing
+     */
+    public <T> CompletableFuture<T> readJsonFromUrlAsync(Type type) {
+        return openAsync().thenApply(in -> in == null ? null : JsonUtils.parse(in, type));
+    }
+
+    /**
+     * open the body of the file, from the cache if it didn't change since it was cached
+     * @return the body, null if problems occur at connection
+     */
+    private InputStream open() {
+        HttpCache httpCache = cache;
+        HttpCache.Entry entry = httpCache == null ? null : httpCache.lookup(url);
+        if (httpCache != null && httpCache.isOffline()) return openOffline(httpCache, entry);
         try {
-            HttpRequest request = HttpRequest.newBuilder().uri(URI.create(url)).build();
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpRequest request = request(httpCache, entry);
+            return body(httpCache, entry, client.send(request, HttpResponse.BodyHandlers.ofInputStream()));
+        } catch (IOException | InterruptedException ex) {
+            System.err.println(ex.getMessage());
+            return fallBack(httpCache, entry);
+        }
+    }
 
+    /**
+     * open the body of the file like open, without blocking the calling thread while waiting for the server
+     * @return completes with the body, or with null if problems occur at connection
+     */
+    private CompletableFuture<InputStream> openAsync() {
+        HttpCache httpCache = cache;
+        HttpCache.Entry entry = httpCache == null ? null : httpCache.lookup(url);
+        if (httpCache != null && httpCache.isOffline()) return CompletableFuture.completedFuture(openOffline(httpCache, entry));
+        HttpRequest request = request(httpCache, entry);
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()).handle((response, ex) -> {
+            if (ex != null) {
+                System.err.println(ex.getMessage());
+                return fallBack(httpCache, entry);
+            }
+            return body(httpCache, entry, response);
+        });
+    }
+
+    /**
+     * build the request for the file, asking only for a changed file if it is cached
+     */
+    private HttpRequest request(HttpCache httpCache, HttpCache.Entry entry) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder().uri(URI.create(url));
+        if (httpCache != null) httpCache.conditional(builder, entry);
+        return builder.build();
+    }
+
+    /**
+     * get the body of the file from a response of the server, the cached copy if the file didn't change
+     * @return the body, null if the server answered with an error
+     */
+    private InputStream body(HttpCache httpCache, HttpCache.Entry entry, HttpResponse<InputStream> response) {
+        try {
+            if (response.statusCode() == 304 && entry != null) {
+                response.body().close();
+                return httpCache.open(entry);
+            }
             if (response.statusCode() != 200) {
                 System.err.println("Server connection error");
+                response.body().close();
                 return null;
             }
-            return response.body();
-        } catch (IOException | InterruptedException ex) {
+            return httpCache == null ? response.body() : httpCache.store(url, response);
+        } catch (IOException ex) {
             System.err.println(ex.getMessage());
             return null;
         }
     }
+
+    /**
+     * open the cached copy of the file without asking the server
+     * @return the body, null if the file isn't cached
+     */
+    private InputStream openOffline(HttpCache httpCache, HttpCache.Entry entry) {
+        if (entry == null) {
+            System.err.println("Offline and " + url + " is not cached");
+            return null;
+        }
+        try {
+            return httpCache.open(entry);
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * use the cached copy of the file when the server can't be reached
+     * @return the body, null if the file isn't cached
+     */
+    private InputStream fallBack(HttpCache httpCache, HttpCache.Entry entry) {
+        if (entry == null) return null;
+        System.err.println("Using the cached copy of " + url);
+        return openOffline(httpCache, entry);
+    }
 }
@@ -13,6 +13,9 @@ public class Shop {
     public final String location;
     /** list of items for sale in the shop, set to private as final doesn't offer protection for the content of ArrayList */
     private final ArrayList<Item> menu;
+    /** node id of the shop in the map of the drone, not part of the menus file so it's set once the
+     * shop is added to the map, -1 until then. 0 is the id of Appleton Tower so it can't mean unset */
+    private transient int nodeId = -1;
 
 
     /**
@@ -34,4 +37,24 @@ public class Shop {
     public ArrayList<Item> getMenu() {
         return menu;
     }
+
+    /**
+     * get the node id of the shop in the map of the drone
+     * @return the node id of the shop
+     * @throws IllegalStateException if the shop isn't added to the map yet
+     */
+    public int getNodeId() {
+        if (nodeId == -1) {
+            throw new IllegalStateException("Shop " + name + " isn't added to the map yet");
+        }
+        return nodeId;
+    }
+
+    /**
+     * record the node id of the shop after its location is added to the map of the drone
+     * @param nodeId the node id of the shop
+     */
+    public void setNodeId(int nodeId) {
+        this.nodeId = nodeId;
+    }
 }
@@ -0,0 +1,244 @@
+package uk.ac.ed.inf;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * fetches everything the drone needs before it can plan, the menus, the no-fly zones, the landmarks, the
+ * orders and every distinct w3w address they mention, all at the same time with at most a fixed number
+ * of requests to the web server in flight. The w3w addresses end up in the cache of the W3WUtils, so
+ * the map of the drone can then be filled in the usual order without waiting for the server again
+ */
+public class StartupLoader {
+    /** default number of requests to the web server in flight at the same time */
+    public static final int MAX_REQUESTS = 8;
+
+    /** the machine name of the web server */
+    private final String name;
+    /** the port of the web server */
+    private final String port;
+    /** decodes and caches the w3w addresses */
+    private final W3WUtils wUtils;
+    /** requests waiting for one of the permits to be sent */
+    private final ConcurrentLinkedQueue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+    /** one permit for each request in flight */
+    private final Semaphore permits;
+    /** number of calls to startWaiting not handled yet, only the call that raised it from 0 starts requests */
+    private final AtomicInteger starting = new AtomicInteger();
+    /** the w3w addresses requested so far, so every address is only requested once */
+    private final ConcurrentHashMap<String, CompletableFuture<Location>> addresses = new ConcurrentHashMap<>();
+
+    /** the menus of the shops, null until loaded */
+    private Menus menus;
+    /** the no-fly zones, null until loaded */
+    private List<Feature> noFlyZones;
+    /** the landmarks, null until loaded */
+    private List<Feature> landmarks;
+    /** the orders with their items, null until loaded */
+    private List<OrderRecord> orders;
+
+    /**
+     * create a loader for a web server with the default number of requests in flight
+     * @param name the machine name of the web server
+     * @param port the port of the web server
+     * @param wUtils decodes the w3w addresses and keeps them
+     */
+    public StartupLoader(String name, String port, W3WUtils wUtils) {
+        this(name, port, wUtils, MAX_REQUESTS);
+    }
+
+    /**
+     * create a loader for a web server
+     * @param name the machine name of the web server
+     * @param port the port of the web server
+     * @param wUtils decodes the w3w addresses and keeps them
+     * @param maxRequests number of requests to the web server in flight at the same time
+     */
+    public StartupLoader(String name, String port, W3WUtils wUtils, int maxRequests) {
+        this.name = name;
+        this.port = port;
+        this.wUtils = wUtils;
+        this.permits = new Semaphore(maxRequests);
+    }
+
+    /**
+     * fetch the menus, no-fly zones, landmarks and orders and decode all their w3w addresses, and wait
+     * until everything arrived
+     * @param orderSource reads the orders of the day from the database, run on a thread of its own
+     * @return true if everything was loaded, false otherwise
+     */
+    public boolean load(Supplier<List<OrderRecord>> orderSource) {
+        GeoJsonUtils geoJsonUtils = new GeoJsonUtils(name, port);
+        CompletableFuture<Menus> menusLoaded = this.<ArrayList<Shop>>fetch(Menus.url(name, port), JsonUtils.SHOP_LIST)
+                .thenApply(shops -> shops == null ? null : Menus.fromShops(shops));
+        CompletableFuture<List<Feature>> noFlyZonesLoaded = this.<FeatureCollection>fetch(geoJsonUtils.noFlyZone, FeatureCollection.class)
+                .thenApply(features -> features == null ? null : features.features());
+        CompletableFuture<List<Feature>> landmarksLoaded = this.<FeatureCollection>fetch(geoJsonUtils.landmarks, FeatureCollection.class)
+                .thenApply(features -> features == null ? null : features.features());
+        CompletableFuture<List<OrderRecord>> ordersLoaded = CompletableFuture.supplyAsync(orderSource)
+                .exceptionally(StartupLoader::failed);
+
+        // decode the addresses as soon as the files mentioning them arrive
+        CompletableFuture<Boolean> shopsDecoded = menusLoaded.thenCompose(loaded -> {
+            List<String> words = new ArrayList<>();
+            if (loaded != null) {
+                for (Shop shop: loaded.getIndex().getShops()) words.add(shop.location);
+            }
+            return decodeAll(words);
+        });
+        CompletableFuture<Boolean> landmarksDecoded = landmarksLoaded.thenCompose(loaded -> {
+            List<String> words = new ArrayList<>();
+            if (loaded != null) {
+                for (Feature landmark: loaded) words.add(landmark.getStringProperty("location"));
+            }
+            return decodeAll(words);
+        });
+        CompletableFuture<Boolean> ordersDecoded = ordersLoaded.thenCompose(loaded -> {
+            List<String> words = new ArrayList<>();
+            if (loaded != null) {
+                for (OrderRecord order: loaded) words.add(order.deliverTo);
+            }
+            return decodeAll(words);
+        });
+
+        CompletableFuture.allOf(noFlyZonesLoaded, shopsDecoded, landmarksDecoded, ordersDecoded).join();
+        menus = menusLoaded.join();
+        noFlyZones = noFlyZonesLoaded.join();
+        landmarks = landmarksLoaded.join();
+        orders = ordersLoaded.join();
+
+        if (menus == null) System.err.println("Problem reading the menus file");
+        if (noFlyZones == null) System.err.println("Problem reading noflyzone geojson file");
+        if (landmarks == null) System.err.println("Problem reading GeoJson file landmarks");
+        if (orders == null) System.err.println("Problem reading orders and orderDetails tables");
+        boolean decoded = shopsDecoded.join() && landmarksDecoded.join() && ordersDecoded.join();
+        if (!decoded) System.err.println("Problem reading W3W address file");
+        return menus != null && noFlyZones != null && landmarks != null && orders != null && decoded;
+    }
+
+    /**
+     * get the menus of the shops
+     * @return the menus, null if they weren't loaded
+     */
+    public Menus getMenus() {
+        return menus;
+    }
+
+    /**
+     * get the no-fly zones
+     * @return the features of the no-fly zones file, null if they weren't loaded
+     */
+    public List<Feature> getNoFlyZones() {
+        return noFlyZones;
+    }
+
+    /**
+     * get the landmarks
+     * @return the features of the landmarks file, null if they weren't loaded
+     */
+    public List<Feature> getLandmarks() {
+        return landmarks;
+    }
+
+    /**
+     * get the orders with their items
+     * @return the orders, null if they weren't loaded
+     */
+    public List<OrderRecord> getOrders() {
+        return orders;
+    }
+
+    /**
+     * decode w3w addresses, each distinct address is requested once
+     * @return completes with true once all of them are decoded, or false if any failed
+     */
+    private CompletableFuture<Boolean> decodeAll(List<String> words) {
+        List<CompletableFuture<Location>> decoded = new ArrayList<>();
+        for (String word: words) {
+            decoded.add(addresses.computeIfAbsent(word, w -> limit(() -> wUtils.convertW3WAsync(w))
+                    .exceptionally(StartupLoader::failed)));
+        }
+        return CompletableFuture.allOf(decoded.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            for (CompletableFuture<Location> loc: decoded) {
+                if (loc.join() == null) return false;
+            }
+            return true;
+        });
+    }
+
+    /**
+     * read and parse a JSON file from the web server without blocking
+     * @return completes with the content of the file, or with null if problems occur at connection or parsing
+     */
+    private <T> CompletableFuture<T> fetch(String url, Type type) {
+        return this.<T>limit(() -> new ServerUtils(url).readJsonFromUrlAsync(type)).exceptionally(StartupLoader::failed);
+    }
+
+    /**
+     * report a request that failed with an exception instead of an answer
+     * @return null, like a request that failed to be read
+     */
+    private static <T> T failed(Throwable ex) {
+        System.err.println("Problem with a request to the web server: " + ex.getMessage());
+        return null;
+    }
+
+    /**
+     * start a request once a permit is free, without blocking the calling thread while waiting for it
+     * @param request sends the request
+     * @return completes like the request once it was sent and answered, or exceptionally if sending it throws
+     */
+    private <T> CompletableFuture<T> limit(Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        waiting.add(() -> {
+            CompletableFuture<T> sent;
+            try {
+                sent = request.get();
+            } catch (RuntimeException ex) {
+                // the request never went out, give its permit to the next one, startWaiting is still looping
+                permits.release();
+                result.completeExceptionally(ex);
+                return;
+            }
+            sent.whenComplete((value, ex) -> {
+                permits.release();
+                startWaiting();
+                if (ex != null) result.completeExceptionally(ex);
+                else result.complete(value);
+            });
+        });
+        startWaiting();
+        return result;
+    }
+
+    /**
+     * start waiting requests while permits are free. A request answered right away, like a cached address,
+     * calls this again from inside the loop, that call only leaves a note for the loop to go round once more
+     * so the requests are started one after the other instead of each one deeper in the stack
+     */
+    private void startWaiting() {
+        if (starting.getAndIncrement() != 0) return;
+        int calls = 1;
+        do {
+            while (!waiting.isEmpty() && permits.tryAcquire()) {
+                Runnable next = waiting.poll();
+                if (next == null) {
+                    permits.release();
+                    break;
+                }
+                next.run();
+            }
+            calls = starting.addAndGet(-calls);
+        } while (calls != 0);
+    }
+}
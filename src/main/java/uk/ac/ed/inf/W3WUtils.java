@@ -1,14 +1,37 @@
 package uk.ac.ed.inf;
 
 
-import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * class providing decoding functionality for W3W address
+ * class providing decoding functionality for W3W address, the decoded locations are cached in memory
+ * and, if a cache file is given, in an append-only file so later runs don't ask the server again
  */
 public class W3WUtils {
     /** the url to the part of website where the w3w translation information is stored */
     public final String server;
+    /** the locations decoded so far by their w3w address */
+    private final ConcurrentHashMap<String, Location> cache = new ConcurrentHashMap<>();
+    /** the addresses the server is being asked for at the moment, so concurrent lookups share one request */
+    private final ConcurrentHashMap<String, CompletableFuture<Location>> inFlight = new ConcurrentHashMap<>();
+    /** file the locations are appended to, one w3w address and its JSON per line, null for none */
+    private final Path cacheFile;
+    /** number of addresses answered from the cache */
+    private final AtomicLong hits = new AtomicLong();
+    /** number of addresses requested from the server */
+    private final AtomicLong misses = new AtomicLong();
+    /** time taken to load the cache file in nanoseconds */
+    private long loadTime = 0;
 
     /**
      * initialize a W3WUtils object using the machine name and port of the web server
@@ -16,41 +39,238 @@ public class W3WUtils {
      * @param port the port of the web server
      */
     public W3WUtils(String name, String port) {
+        this(name, port, null);
+    }
+
+    /**
+     * initialize a W3WUtils object using the machine name and port of the web server, and load the
+     * locations decoded by earlier runs from a cache file
+     * @param name the machine name of web server
+     * @param port the port of the web server
+     * @param cacheFile file the decoded locations are kept in, created if it doesn't exist, null for none
+     */
+    public W3WUtils(String name, String port, Path cacheFile) {
         // address of the web server storing location information encoded in the
         // three words
-        this.server = "HTTP://" + name + ":" + port + "/words/";;
+        this.server = "HTTP://" + name + ":" + port + "/words/";
+        this.cacheFile = cacheFile;
+        if (cacheFile != null) loadCache();
     }
 
 
     /**
      * decode a w3w formatted location and parse it into a Location object holding all
-     * the information stored on the server
+     * the information stored on the server, the server is only asked the first time and
+     * a lookup of an address already being asked for waits for that answer
      * @param word the w3w format location
      * @return null if error happens at connection or parsing, otherwise the Location object containing all the information from the server
      */
     public Location convertW3W(String word) {
+        Location loc = cache.get(word);
+        if (loc != null) {
+            hits.incrementAndGet();
+            return loc;
+        }
+        CompletableFuture<Location> lookup = new CompletableFuture<>();
+        CompletableFuture<Location> running = inFlight.putIfAbsent(word, lookup);
+        if (running != null) {
+            hits.incrementAndGet();
+            return running.join();
+        }
+        loc = cache.get(word);
+        if (loc != null) {
+            // answered by a lookup that ended after the cache was checked
+            hits.incrementAndGet();
+            return finish(word, lookup, loc);
+        }
+        misses.incrementAndGet();
+
+        // server connection and information retrieval, the response is parsed as it is read
+        Location answer = null;
+        try {
+            ServerUtils connection = new ServerUtils(url(word));
+            answer = connection.readJsonFromUrl(Location.class);
+        } finally {
+            loc = finish(word, lookup, answer);
+        }
+        return loc;
+    }
+
+    /**
+     * decode a w3w formatted location like convertW3W, without blocking the calling thread while
+     * the server is asked
+     * @param word the w3w format location
+     * @return completes with the Location object, or with null if error happens at connection or parsing
+     */
+    public CompletableFuture<Location> convertW3WAsync(String word) {
+        Location loc = cache.get(word);
+        if (loc != null) {
+            hits.incrementAndGet();
+            return CompletableFuture.completedFuture(loc);
+        }
+        CompletableFuture<Location> lookup = new CompletableFuture<>();
+        CompletableFuture<Location> running = inFlight.putIfAbsent(word, lookup);
+        if (running != null) {
+            hits.incrementAndGet();
+            return running;
+        }
+        loc = cache.get(word);
+        if (loc != null) {
+            // answered by a lookup that ended after the cache was checked
+            hits.incrementAndGet();
+            return CompletableFuture.completedFuture(finish(word, lookup, loc));
+        }
+        misses.incrementAndGet();
+
+        try {
+            ServerUtils connection = new ServerUtils(url(word));
+            connection.<Location>readJsonFromUrlAsync(Location.class)
+                    .whenComplete((answer, ex) -> finish(word, lookup, ex == null ? answer : null));
+        } catch (RuntimeException ex) {
+            finish(word, lookup, null);
+            throw ex;
+        }
+        return lookup;
+    }
+
+    /**
+     * get the url of the details of a w3w address on the server
+     */
+    private String url(String word) {
         String[] threeWords = word.split("\\.");
         String url = server;
         for (String w: threeWords) {
             url += w + "/";
         }
-        url += "details.json";
+        return url + "details.json";
+    }
 
-        // server connection and information retrieval
-        ServerUtils connection = new ServerUtils(url);
-        String response = connection.readStringFromUrl();
-        if (response == null) {
-            System.err.println("Trouble connecting to server");
-            return null;
+    /**
+     * end the lookup of an address, the answer is added to the cache before the lookup is dropped so a
+     * later lookup checking both finds it in one of them, and the lookups waiting for it get the same location
+     * @return the location, null if the server gave no valid answer
+     */
+    private Location finish(String word, CompletableFuture<Location> lookup, Location answer) {
+        Location loc = null;
+        try {
+            loc = accept(word, answer);
+        } finally {
+            inFlight.remove(word, lookup);
+            lookup.complete(loc);
         }
+        return loc;
+    }
 
-        // parse the response from the server into a Location object
-        Location loc = new Gson().fromJson(response, Location.class);
+    /**
+     * add the location the server answered for an address to the cache
+     * @return the location, null if the server gave no valid answer
+     */
+    private Location accept(String word, Location loc) {
         if (loc == null) {
-            System.err.println("Issue with parsing of JSON file");
+            System.err.println("Trouble reading the w3w address from the server");
             return null;
         }
 
+        Location cached = cache.putIfAbsent(word, loc);
+        if (cached != null) return cached;
+        store(word, loc);
         return loc;
     }
+
+    /**
+     * get the share of addresses answered without asking the server
+     * @return the number of hits divided by the number of addresses decoded, 0 if none was decoded yet
+     */
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    /**
+     * get the number of addresses answered from the cache
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * get the number of addresses requested from the server
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * get the number of locations in the cache
+     * @return the number of cached locations
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * get the time taken to load the cache file
+     * @return the load time in milliseconds
+     */
+    public double getLoadTime() {
+        return loadTime / 1000000.0;
+    }
+
+    /**
+     * parse a response of the server into a Location
+     * @return the location, null if the response isn't a valid location
+     */
+    private Location parse(String json) {
+        try {
+            return JsonUtils.GSON.fromJson(json, Location.class);
+        } catch (JsonParseException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * read the locations decoded by earlier runs, lines that can't be parsed (like a line cut short when a
+     * run was killed) are skipped
+     */
+    private void loadCache() {
+        long start = System.nanoTime();
+        if (Files.exists(cacheFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    Location loc = tab == -1 ? null : parse(line.substring(tab + 1));
+                    if (loc == null) {
+                        System.err.println("Skipping a broken line of the w3w cache file");
+                        continue;
+                    }
+                    cache.put(line.substring(0, tab), loc);
+                }
+            } catch (IOException ex) {
+                System.err.println("Problem reading the w3w cache file");
+                System.err.println(ex.getMessage());
+            }
+        }
+        loadTime = System.nanoTime() - start;
+    }
+
+    /**
+     * append the location the server answered for an address to the cache file, in the same JSON format
+     * as the server on one line
+     */
+    private void store(String word, Location loc) {
+        if (cacheFile == null) return;
+        String line = word + "\t" + JsonUtils.GSON.toJson(loc, Location.class) + "\n";
+        synchronized (this) {
+            try {
+                Files.write(cacheFile, line.getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException ex) {
+                System.err.println("Problem writing the w3w cache file");
+                System.err.println(ex.getMessage());
+            }
+        }
+    }
 }
@@ -0,0 +1,138 @@
+package uk.ac.ed.inf;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.Polygon;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * everything the deliveries of any day share: the map with the no-fly zones, landmarks and shops and the
+ * shortest paths between them solved, and the menus with their compiled index. Nothing changes a world
+ * once it is built, every day starts a drone from a copy of the base map, so any number of days can use
+ * the same world at the same time
+ */
+public class World {
+    /** the solved map of the no-fly zones, landmarks and shops, never changed once built */
+    public final Map baseMap;
+    /** the menus of the shops */
+    public final Menus menus;
+    /** decodes the w3w addresses, it is thread safe */
+    public final W3WUtils wUtils;
+
+    /**
+     * create a world from its parts
+     * @param baseMap the solved map of the no-fly zones, landmarks and shops
+     * @param menus the menus of the shops
+     * @param wUtils decodes the w3w addresses
+     */
+    public World(Map baseMap, Menus menus, W3WUtils wUtils) {
+        this.baseMap = baseMap;
+        this.menus = menus;
+        this.wUtils = wUtils;
+    }
+
+    /**
+     * add the no-fly zones, landmarks and shops fetched by a loader to a map and solve the shortest paths
+     * between them
+     * @param loader the loader that fetched the files of the web server
+     * @param wUtils decodes the w3w addresses
+     * @return the world, null if an error occurs
+     */
+    public static World build(StartupLoader loader, W3WUtils wUtils) {
+        // the drone is only used to build the map, it never flies
+        Drone drone = new Drone(LongLat.AT, "Appleton Tower", null);
+        // get the no-fly zones from website and store them in the drone
+        if (!getNoFlyZones(drone, loader.getNoFlyZones())) {
+            System.err.println("Cannot get the information about no fly zones");
+            return null;
+        }
+        // get all the landmarks from website and add them to locations known by the drone
+        if (!getLandmarks(drone, loader.getLandmarks(), wUtils)) {
+            System.err.println("Cannot get the information about landmarks");
+            return null;
+        }
+        // get the information about all the shops and add them to locations known by the drone
+        if (!getShopsInfo(drone, loader.getMenus(), wUtils)) {
+            System.err.println("Cannot get the information about shops");
+            return null;
+        }
+        // after the landmarks and shops are loaded into the map, initialize the three arrays representing the
+        // graph and run the all-pairs shortest path algorithm
+        drone.initializeGraph(drone.getLocationNames().size());
+        return new World(drone.getMap(), loader.getMenus(), wUtils);
+    }
+
+    /**
+     * store the no-fly zones read from the server in the drone
+     * @param drone the drone to store them in
+     * @param nfz the features of the no-fly zones file, null if it couldn't be read
+     * @return true if no error occurs, false otherwise
+     */
+    private static boolean getNoFlyZones(Drone drone, List<Feature> nfz) {
+        if (nfz == null) {
+            System.err.println("Problem reading noflyzone geojson file");
+            return false;
+        }
+        // store the no-fly zones as a list of Polygons in the drone
+        for (Feature f: nfz) {
+            if (f.geometry() instanceof Polygon) {
+                drone.addNFZ((Polygon) f.geometry());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the landmarks used to avoid no-fly zones, and add them to the map of the drone
+     * @param drone the drone to add them to
+     * @param landmarks the features of the landmarks file, null if it couldn't be read
+     * @param wUtils decodes the w3w addresses of the landmarks
+     * @return true if no error occurs, false otherwise
+     */
+    private static boolean getLandmarks(Drone drone, List<Feature> landmarks, W3WUtils wUtils) {
+        if (landmarks == null) {
+            System.err.println("Problem reading GeoJson file landmarks");
+            return false;
+        }
+        for (Feature landmark: landmarks) {
+            Location loc = wUtils.convertW3W(landmark.getStringProperty("location"));
+            if (loc == null) {
+                System.err.println("Problem reading W3W address file");
+                return false;
+            }
+            drone.addLocation(landmark.getStringProperty("name"), loc.coordinates);
+        }
+        return true;
+    }
+
+    /**
+     * get the information of all the shops providing food for the service, and add them
+     * to the map of the drone if it's not already added
+     * @param drone the drone to add them to
+     * @param menus the menus of the shops
+     * @param wUtils decodes the w3w addresses of the shops
+     * @return true if no error occurs, false otherwise
+     */
+    private static boolean getShopsInfo(Drone drone, Menus menus, W3WUtils wUtils) {
+        if (menus == null) {
+            System.err.println("Problem reading the menus file");
+            return false;
+        }
+        // get all the shops
+        Collection<Shop> allShops = menus.getIndex().getShops();
+        for (Shop shop: allShops) {
+            Location loc = wUtils.convertW3W(shop.location);
+            if (loc == null) {
+                System.err.println("Problem reading W3W address file");
+                return false;
+            }
+            int id = drone.getLocationId(shop.name);
+            if (id == -1) {
+                id = drone.addLocation(shop.name, loc.coordinates);
+            }
+            shop.setNodeId(id);
+        }
+        return true;
+    }
+}
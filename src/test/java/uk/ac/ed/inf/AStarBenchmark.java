@@ -0,0 +1,59 @@
+package uk.ac.ed.inf;
+
+import com.mapbox.geojson.LineString;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Micro benchmark of AStarPlanner, run it with its main method. Plans detours of growing length
+ * around a long wall and prints the time per expanded node, which should stay roughly constant
+ * as the closed set grows, and the bytes allocated per search once the planner is warmed up
+ */
+public class AStarBenchmark {
+    /** number of timed searches for every target */
+    private static final int RUNS = 20;
+
+    public static void main(String[] args) {
+        Map map = new Map();
+        List<Point> wall = new ArrayList<>();
+        wall.add(Point.fromLngLat(-3.1866, 55.9428));
+        wall.add(Point.fromLngLat(-3.1864, 55.9428));
+        wall.add(Point.fromLngLat(-3.1864, 55.9460));
+        wall.add(Point.fromLngLat(-3.1866, 55.9460));
+        wall.add(Point.fromLngLat(-3.1866, 55.9428));
+        map.addNoFlyZone(Polygon.fromOuterInner(LineString.fromLngLats(wall)));
+        AStarPlanner planner = new AStarPlanner(map);
+
+        System.out.println("target lng, expansions, ns/expansion, bytes allocated/search");
+        for (double lng = -3.1862; lng <= -3.1846; lng += 0.0004) {
+            LongLat target = new LongLat(lng, 55.9445);
+            // warm up and grow the arrays before timing
+            for (int i = 0; i < 5; i ++) planner.plan(LongLat.AT, target);
+
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < RUNS; i ++) planner.plan(LongLat.AT, target);
+            long duration = System.nanoTime() - start;
+            bytes = allocatedBytes() - bytes;
+
+            int expansions = planner.getExpansions();
+            System.out.printf("%.4f, %d, %.0f, %d\n", lng, expansions,
+                    (double) duration / RUNS / expansions, bytes / RUNS);
+        }
+    }
+
+    /**
+     * get the number of bytes allocated by the current thread so far, -1 if the JVM can't tell
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
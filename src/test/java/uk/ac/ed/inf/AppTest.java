@@ -1,13 +1,44 @@
 package uk.ac.ed.inf;
 
 import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
 import com.mapbox.geojson.LineString;
 import com.mapbox.geojson.Point;
 import com.mapbox.geojson.Polygon;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Random;
+import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.*;
 
@@ -129,6 +160,23 @@ public class AppTest {
         assertTrue(approxEq(nextPosition, calculatedPosition));
     }
 
+    @Test
+    public void testNextPositionTableMatchesTrig(){
+        double[] out = new double[2];
+        for (int angle = 0; angle <= 350; angle += 10) {
+            double lng = appletonTower.lng + LongLat.distance*Math.cos(Math.toRadians(angle));
+            double lat = appletonTower.lat + LongLat.distance*Math.sin(Math.toRadians(angle));
+            LongLat nextPosition = appletonTower.nextPosition(angle);
+            assertEquals(lng, nextPosition.lng, 0.0);
+            assertEquals(lat, nextPosition.lat, 0.0);
+            LongLat.nextPosition(appletonTower.lng, appletonTower.lat, angle, out);
+            assertEquals(lng, out[0], 0.0);
+            assertEquals(lat, out[1], 0.0);
+        }
+        // angles outside the table still move the drone
+        assertEquals(appletonTower.nextPosition(350).lat, appletonTower.nextPosition(-10).lat, 1e-12);
+    }
+
     @Test
     public void testAngle999(){
         // The special junk value -999 means "hover and do not change position"
@@ -274,6 +322,1201 @@ public class AppTest {
         assertFalse(checkNFZ(greggs, rudis, noFlyZones));
     }
 
+    /**
+     * a thin no-fly zone between Appleton Tower and a target east of it, forcing a detour
+     */
+    private static Polygon wall() {
+        List<Point> wall = new ArrayList<>();
+        wall.add(Point.fromLngLat(-3.1866, 55.9435));
+        wall.add(Point.fromLngLat(-3.1864, 55.9435));
+        wall.add(Point.fromLngLat(-3.1864, 55.9455));
+        wall.add(Point.fromLngLat(-3.1866, 55.9455));
+        wall.add(Point.fromLngLat(-3.1866, 55.9435));
+        return Polygon.fromOuterInner(LineString.fromLngLats(wall));
+    }
+
+    @Test
+    public void testPlanAStarAroundNFZ() {
+        Drone drone = new Drone(appletonTower, "Appleton Tower", null);
+        drone.addNFZ(wall());
+        LongLat target = new LongLat(-3.1860, 55.9445);
+
+        Stack<Integer> angles = drone.planAStar(target);
+        assertNotNull(angles);
+        Map map = new Map();
+        map.addNoFlyZone(wall());
+        LongLat curr = appletonTower;
+        while (!angles.isEmpty()) {
+            LongLat next = curr.nextPosition(angles.pop());
+            assertFalse(map.intersectNFZ(curr, next));
+            curr = next;
+        }
+        assertTrue(curr.closeTo(target));
+    }
+
+    @Test
+    public void testAStarPlannerReuse() {
+        Map map = new Map();
+        map.addNoFlyZone(wall());
+        AStarPlanner planner = new AStarPlanner(map);
+        LongLat target = new LongLat(-3.1860, 55.9445);
+
+        Stack<Integer> first = planner.plan(appletonTower, target);
+        int capacity = planner.getCapacity();
+        Stack<Integer> second = planner.plan(appletonTower, target);
+        // the arrays grown by the first search are big enough for the same search again
+        assertEquals(capacity, planner.getCapacity());
+        assertEquals(first, second);
+        assertTrue(planner.getExpansions() > 0);
+    }
+
+    @Test
+    public void testAStarPlannerSpatialHash() {
+        AStarPlanner planner = new AStarPlanner(new Map());
+        planner.reset();
+        // a node just before the edge of its cell, and a position very close to it just past the edge
+        double cell = LongLat.veryCloseThreshold;
+        double lng = (Math.floor(appletonTower.lng / cell) + 0.95) * cell;
+        double lat = (Math.floor(appletonTower.lat / cell) + 0.95) * cell;
+        int node = planner.addNode(lng, lat, -1, 0, 0, 0);
+
+        assertEquals(node, planner.find(lng + cell * 0.1, lat + cell * 0.1, AStarPlanner.OPEN));
+        assertEquals(-1, planner.find(lng + cell * 2, lat, AStarPlanner.OPEN));
+        assertEquals(-1, planner.find(lng, lat, AStarPlanner.CLOSED));
+        // a new search forgets the nodes of the last one
+        planner.reset();
+        assertEquals(-1, planner.find(lng, lat, AStarPlanner.OPEN));
+    }
+
+    @Test
+    public void testAStarPlannerDecreaseKey() {
+        AStarPlanner planner = new AStarPlanner(new Map());
+        planner.reset();
+        int a = planner.addNode(appletonTower.lng, appletonTower.lat, -1, 0, 3, 3);
+        int b = planner.addNode(businessSchool.lng, businessSchool.lat, -1, 0, 2, 2);
+        LongLat north = appletonTower.nextPosition(90);
+        int c = planner.addNode(north.lng, north.lat, -1, 0, 1, 1);
+        planner.push(a);
+        planner.push(b);
+        planner.push(c);
+
+        // a cheaper node at the position of a takes its place and moves to the top of the heap
+        int cheaperA = planner.addNode(appletonTower.lng, appletonTower.lat, -1, 0, 0, 0);
+        planner.replace(a, cheaperA);
+        assertEquals(cheaperA, planner.find(appletonTower.lng, appletonTower.lat, AStarPlanner.OPEN));
+        assertEquals(cheaperA, planner.poll());
+        assertEquals(c, planner.poll());
+        assertEquals(b, planner.poll());
+    }
+
+    /**
+     * a map with Appleton Tower, a point north of the wall and a target east of the wall, with
+     * the graph populated and the shortest paths solved
+     */
+    private static Map wallMap() {
+        Map map = new Map();
+        map.addNoFlyZone(wall());
+        map.addLocation("north", new LongLat(-3.1867, 55.9460));
+        map.addLocation("target", new LongLat(-3.1850, 55.9445));
+        int size = map.locationNames.size();
+        map.size = size;
+        map.graph = new int[size * size];
+        map.next = new int[size * size];
+        map.intersect = new BitSet(size * size);
+        map.populateGraph();
+        map.shortestPath();
+        return map;
+    }
+
+    @Test
+    public void testShortestPathAroundNFZ() {
+        Map map = wallMap();
+        // the direct path crosses the wall, so the cheaper path goes through the point north of it
+        assertTrue(map.isIntersect(0, 2));
+        assertFalse(map.isIntersect(0, 1));
+        assertEquals(1, map.getNext(0, 2));
+        assertEquals(2, map.getNext(1, 2));
+        assertEquals(map.getGraph(0, 1) + map.getGraph(1, 2), map.getGraph(0, 2));
+        assertEquals(map.getGraph(0, 2), map.getDistance("Appleton Tower", "target"));
+        assertEquals(2, map.getId("target"));
+        assertEquals(-1, map.getId("nowhere"));
+        assertEquals(map.getGraph(2, 0), map.getGraph(0, 2));
+    }
+
+    @Test
+    public void testParallelShortestPathMatchesTripleLoop() {
+        int s = 300;
+        Map map = new Map();
+        map.size = s;
+        map.graph = new int[s * s];
+        map.next = new int[s * s];
+        // small weights so that many paths tie
+        Random random = new Random(42);
+        for (int i = 0; i < s; i ++) {
+            for (int j = i + 1; j < s; j ++) {
+                int weight = 1 + random.nextInt(5);
+                map.graph[i * s + j] = weight;
+                map.graph[j * s + i] = weight;
+            }
+        }
+        int[] graph = map.graph.clone();
+        int[] next = new int[s * s];
+        for (int i = 0; i < s; i ++) {
+            for (int j = 0; j < s; j ++) {
+                next[i * s + j] = j;
+            }
+        }
+        for (int l = 0; l < s; l ++) {
+            for (int i = 0; i < s; i ++) {
+                for (int j = 0; j < s; j ++) {
+                    if (graph[i * s + j] > graph[i * s + l] + graph[l * s + j]) {
+                        graph[i * s + j] = graph[i * s + l] + graph[l * s + j];
+                        next[i * s + j] = next[i * s + l];
+                    }
+                }
+            }
+        }
+
+        map.setParallelism(4);
+        map.shortestPath();
+        assertArrayEquals(graph, map.graph);
+        assertArrayEquals(next, map.next);
+    }
+
+    @Test
+    public void testInsertLocationIntoSolvedGraph() {
+        Map incremental = wallMap();
+        Map base = new Map(incremental);
+        LongLat south = new LongLat(-3.1867, 55.9430);
+        LongLat east = new LongLat(-3.1858, 55.9452);
+        incremental.addLocation("south", south);
+        incremental.addLocation("east", east);
+        // the copy taken before the insertions is unchanged
+        assertEquals(3, base.size);
+        assertEquals(-1, base.getId("south"));
+
+        Map full = wallMap();
+        full.addLocation("south", south);
+        full.addLocation("east", east);
+        int s = full.locationNames.size();
+        full.size = s;
+        full.graph = new int[s * s];
+        full.next = new int[s * s];
+        full.intersect = new BitSet(s * s);
+        full.populateGraph();
+        int[] weights = full.graph.clone();
+        full.shortestPath();
+
+        assertEquals(s, incremental.size);
+        assertArrayEquals(full.graph, incremental.graph);
+        assertEquals(full.intersect, incremental.intersect);
+        // following next gives a path as long as the shortest distance
+        for (int i = 0; i < s; i ++) {
+            for (int j = 0; j < s; j ++) {
+                int length = 0;
+                for (int curr = i; curr != j; curr = incremental.getNext(curr, j)) {
+                    length += weights[curr * s + incremental.getNext(curr, j)];
+                }
+                assertEquals(incremental.getGraph(i, j), length);
+            }
+        }
+    }
+
+    @Test
+    public void testGridNoFlyZoneIndexMatchesLinear() {
+        List<Polygon> zones = new ArrayList<>();
+        zones.add(wall());
+        // a concave zone reaching outside the confinement area
+        List<Point> hook = new ArrayList<>();
+        hook.add(Point.fromLngLat(-3.1920, 55.9450));
+        hook.add(Point.fromLngLat(-3.1880, 55.9450));
+        hook.add(Point.fromLngLat(-3.1880, 55.9470));
+        hook.add(Point.fromLngLat(-3.1890, 55.9470));
+        hook.add(Point.fromLngLat(-3.1890, 55.9455));
+        hook.add(Point.fromLngLat(-3.1920, 55.9455));
+        hook.add(Point.fromLngLat(-3.1920, 55.9450));
+        zones.add(Polygon.fromOuterInner(LineString.fromLngLats(hook)));
+        NoFlyZoneEdges edges = new NoFlyZoneEdges();
+        for (Polygon zone: zones) {
+            edges.add(zone);
+        }
+        NoFlyZoneIndex linear = new LinearNoFlyZoneIndex(edges);
+        NoFlyZoneIndex grid = new GridNoFlyZoneIndex(edges);
+
+        Random random = new Random(7);
+        int crossing = 0;
+        for (int n = 0; n < 20000; n ++) {
+            double x1 = LongLat.FH.lng + random.nextDouble() * (LongLat.BBS.lng - LongLat.FH.lng);
+            double y1 = LongLat.BBS.lat + random.nextDouble() * (LongLat.FH.lat - LongLat.BBS.lat);
+            // mostly single moves, sometimes long edges of the graph
+            double length = n % 10 == 0 ? random.nextDouble() * 0.005 : LongLat.distance;
+            int angle = random.nextInt(36) * 10;
+            double x2 = x1 + length * Math.cos(Math.toRadians(angle));
+            double y2 = y1 + length * Math.sin(Math.toRadians(angle));
+            boolean expected = Map.pathInterceptPolygon(x1, y1, x2, y2, zones.get(0))
+                    || Map.pathInterceptPolygon(x1, y1, x2, y2, zones.get(1));
+            assertEquals(expected, linear.intersects(x1, y1, x2, y2));
+            assertEquals(expected, grid.intersects(x1, y1, x2, y2));
+            if (expected) crossing ++;
+        }
+        assertTrue(crossing > 0);
+    }
+
+    @Test
+    public void testBatchWriterBatchesMoves() throws Exception {
+        java.util.Map<String, Integer> calls = new ConcurrentHashMap<>();
+        ConnectionPool pool = new ConnectionPool(() -> recordingConnection(calls, false), 1);
+        BatchWriter writer = new BatchWriter(pool.acquire());
+        LongLat next = LongLat.AT.nextPosition(0);
+        assertTrue(writer.addDelivery("2022-01-01", "abcd1234", "word.word.word", 500));
+        for (int i = 1; i < BatchWriter.BATCH_SIZE + 10; i ++) {
+            assertTrue(writer.addPath(i % 2 == 0 ? null : "2022-01-01", "abcd1234", LongLat.AT, 0, next));
+        }
+        // the rows are tagged with the date of their order, or null if there is none
+        assertEquals(1 + (BatchWriter.BATCH_SIZE + 9 + 1) / 2, (int) calls.getOrDefault("setDate", 0));
+        assertEquals((BatchWriter.BATCH_SIZE + 9) / 2, (int) calls.getOrDefault("setNull", 0));
+        // one full batch sent but not committed, the order is only committed by the flush at its end
+        assertEquals(2, (int) calls.getOrDefault("executeBatch", 0));
+        assertEquals(0, (int) calls.getOrDefault("commit", 0));
+        assertEquals(0, writer.getWritten());
+        assertTrue(writer.flush());
+        assertEquals(BatchWriter.BATCH_SIZE + 10, writer.getWritten());
+        assertEquals(1, (int) calls.getOrDefault("commit", 0));
+        // nothing left to send, closing gives the connection back to the pool once
+        writer.close();
+        writer.close();
+        assertEquals(4, (int) calls.getOrDefault("executeBatch", 0));
+        assertEquals(0, (int) calls.getOrDefault("close", 0));
+        assertFalse(writer.addPath("2022-01-01", "abcd1234", LongLat.AT, 0, next));
+        // the next writer reuses the connection and its statements
+        new BatchWriter(pool.acquire()).close();
+        assertEquals(2, (int) calls.getOrDefault("prepareStatement", 0));
+        assertEquals(1, pool.getHits());
+        assertEquals(2, pool.getStatementHits());
+        // closing the pool closes the statements and the connection
+        pool.close();
+        assertEquals(3, (int) calls.getOrDefault("close", 0));
+
+        // a batch failing in the middle of an order rolls back the whole order at its flush
+        java.util.Map<String, Integer> failing = new ConcurrentHashMap<>();
+        pool = new ConnectionPool(() -> recordingConnection(failing, true), 1);
+        writer = new BatchWriter(pool.acquire());
+        for (int i = 1; i < BatchWriter.BATCH_SIZE; i ++) {
+            assertTrue(writer.addPath("2022-01-01", "abcd1234", LongLat.AT, 0, next));
+        }
+        assertFalse(writer.addPath("2022-01-01", "abcd1234", LongLat.AT, 0, next));
+        assertTrue(writer.addPath("2022-01-01", "abcd1234", LongLat.AT, 0, next));
+        assertFalse(writer.flush());
+        assertEquals(1, (int) failing.getOrDefault("executeBatch", 0));
+        assertEquals(1, (int) failing.getOrDefault("rollback", 0));
+        assertEquals(0, (int) failing.getOrDefault("commit", 0));
+        assertEquals(0, writer.getWritten());
+        writer.close();
+        pool.close();
+    }
+
+    @Test
+    public void testAsyncDatabaseWriter() throws Exception {
+        java.util.Map<String, Integer> calls = new ConcurrentHashMap<>();
+        // a small queue so storing rows has to wait for the writer thread
+        ConnectionPool pool = new ConnectionPool(() -> recordingConnection(calls, false), 1);
+        AsyncDatabaseWriter writer = new AsyncDatabaseWriter(new BatchWriter(pool.acquire()), 8);
+        LongLat next = LongLat.AT.nextPosition(0);
+        assertTrue(writer.storeOrder("2022-01-01", "abcd1234", "word.word.word", 500));
+        for (int i = 0; i < 1000; i ++) {
+            assertTrue(writer.storePath("2022-01-01", "abcd1234", LongLat.AT, 0, next));
+        }
+        assertTrue(writer.commit());
+        assertTrue(writer.flush());
+        assertEquals(1001, (int) calls.getOrDefault("addBatch", 0));
+        // the drones of several days store their rows at the same time
+        AsyncDatabaseWriter shared = writer;
+        ExecutorService days = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> stored = new ArrayList<>();
+            for (int d = 1; d <= 8; d ++) {
+                String date = String.format("2022-01-%02d", d);
+                stored.add(days.submit(() -> {
+                    boolean ok = true;
+                    for (int i = 0; i < 250; i ++) {
+                        ok &= shared.storePath(date, "abcd1234", LongLat.AT, 0, next);
+                        if (i % 50 == 0) ok &= shared.commit();
+                    }
+                    return ok;
+                }));
+            }
+            for (Future<Boolean> day: stored) {
+                assertTrue(day.get());
+            }
+        } finally {
+            days.shutdown();
+        }
+        assertTrue(writer.flush());
+        assertEquals(3001, (int) calls.getOrDefault("addBatch", 0));
+        writer.close();
+        pool.close();
+        assertEquals(3, (int) calls.getOrDefault("close", 0));
+        assertFalse(writer.storePath("2022-01-01", "abcd1234", LongLat.AT, 0, next));
+
+        // failures of the writer thread are reported by flush
+        pool = new ConnectionPool(() -> recordingConnection(new HashMap<>(), true), 1);
+        writer = new AsyncDatabaseWriter(new BatchWriter(pool.acquire()));
+        assertTrue(writer.storePath(null, "abcd1234", LongLat.AT, 0, next));
+        assertFalse(writer.flush());
+        assertEquals(0, writer.getFailures());
+        writer.close();
+        pool.close();
+
+        // a row the sink throws on is counted as a failure and the writer thread keeps going
+        pool = new ConnectionPool(() -> recordingConnection(new HashMap<>(), false), 1);
+        writer = new AsyncDatabaseWriter(new BatchWriter(pool.acquire()), 2);
+        assertTrue(writer.storePath(null, "abcd1234", null, 0, next));
+        for (int i = 0; i < 10; i ++) {
+            assertTrue(writer.storePath(null, "abcd1234", LongLat.AT, 0, next));
+        }
+        assertFalse(writer.flush());
+        assertTrue(writer.storePath(null, "abcd1234", LongLat.AT, 0, next));
+        assertTrue(writer.flush());
+        writer.close();
+        pool.close();
+
+        // a database that is down is only tried once for the writer
+        int[] opened = new int[1];
+        pool = new ConnectionPool(() -> {
+            opened[0] ++;
+            throw new SQLException("database is down");
+        }, 1);
+        DatabaseUtils databaseUtils = new DatabaseUtils("down", pool);
+        for (int i = 0; i < 3; i ++) {
+            assertFalse(databaseUtils.storePath(null, "abcd1234", LongLat.AT, 0, next));
+        }
+        assertEquals(1, opened[0]);
+        databaseUtils.close();
+    }
+
+    @Test
+    public void testConnectionPool() throws Exception {
+        java.util.Map<String, Integer> calls = new ConcurrentHashMap<>();
+        ConnectionPool pool = new ConnectionPool(() -> recordingConnection(calls, false), 2);
+        ConnectionPool.PooledConnection first = pool.acquire();
+        ConnectionPool.PooledConnection second = pool.acquire();
+        assertNotSame(first, second);
+        assertSame(first.prepare("select 1"), first.prepare("select 1"));
+        first.close();
+        second.close();
+        // both connections are reused, and checked before they are handed out again
+        try (ConnectionPool.PooledConnection again = pool.acquire()) {
+            assertTrue(again == first || again == second);
+        }
+        assertEquals(2, pool.getMisses());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getStatementHits());
+        assertEquals(1, pool.getStatementMisses());
+        assertEquals(1, (int) calls.getOrDefault("isValid", 0));
+        pool.close();
+        assertEquals(3, (int) calls.getOrDefault("close", 0));
+
+        // a connection that fails the check is replaced by a new one
+        java.util.Map<String, Integer> broken = new HashMap<>();
+        broken.put("invalid", 1);
+        pool = new ConnectionPool(() -> recordingConnection(broken, false), 1);
+        ConnectionPool.PooledConnection stale = pool.acquire();
+        stale.close();
+        assertNotSame(stale, pool.acquire());
+        assertEquals(2, pool.getMisses());
+        pool.close();
+
+        // a validation timeout of 0 hands idle connections out again without checking them
+        java.util.Map<String, Integer> unchecked = new HashMap<>();
+        pool = new ConnectionPool(() -> recordingConnection(unchecked, false), 1, 0);
+        ConnectionPool.PooledConnection reused = pool.acquire();
+        reused.close();
+        assertSame(reused, pool.acquire());
+        assertEquals(0, (int) unchecked.getOrDefault("isValid", 0));
+        pool.close();
+        try {
+            new ConnectionPool(() -> recordingConnection(unchecked, false), 1, -1);
+            fail("a negative validation timeout is rejected");
+        } catch (IllegalArgumentException expected) {
+            // 0 is the only way to turn the check off
+        }
+    }
+
+    @Test
+    public void testGroupOrders() throws Exception {
+        ResultSet resultSet = orderRows(new String[][]{
+                {"2022-01-01", "aaaa0001", "one.two.three", "Bagel"},
+                {"2022-01-01", "bbbb0002", "four.five.six", "Salad"},
+                {"2022-01-01", "aaaa0001", "one.two.three", "Coffee"},
+                {"2022-01-01", "cccc0003", "seven.eight.nine", null},
+        });
+
+        List<OrderRecord> orders = DatabaseUtils.groupOrders(resultSet);
+        assertEquals(3, orders.size());
+        assertEquals("aaaa0001", orders.get(0).orderNo);
+        assertEquals("2022-01-01", orders.get(0).deliveryDate);
+        assertEquals("one.two.three", orders.get(0).deliverTo);
+        assertEquals(Arrays.asList("Bagel", "Coffee"), orders.get(0).items);
+        assertEquals(Arrays.asList("Salad"), orders.get(1).items);
+        assertTrue(orders.get(2).items.isEmpty());
+    }
+
+    @Test
+    public void testOrderCursorSplitsDays() throws Exception {
+        java.util.Map<String, Integer> calls = new ConcurrentHashMap<>();
+        ConnectionPool pool = new ConnectionPool(() -> recordingConnection(calls, false), 1);
+        OrderCursor cursor = new OrderCursor(pool.acquire(), orderRows(new String[][]{
+                {"2022-01-01", "aaaa0001", "one.two.three", "Bagel"},
+                {"2022-01-01", "aaaa0001", "one.two.three", "Coffee"},
+                {"2022-01-01", "bbbb0002", "four.five.six", "Salad"},
+                {"2022-01-03", "cccc0003", "seven.eight.nine", "Bagel"},
+        }));
+
+        List<OrderRecord> day = cursor.nextDay();
+        assertEquals(2, day.size());
+        assertEquals(Arrays.asList("Bagel", "Coffee"), day.get(0).items);
+        day = cursor.nextDay();
+        assertEquals(1, day.size());
+        assertEquals("2022-01-03", day.get(0).deliveryDate);
+        assertNull(cursor.nextDay());
+        // closing the cursor gives the connection back
+        cursor.close();
+        pool.acquire().close();
+        assertEquals(1, pool.getHits());
+        pool.close();
+    }
+
+    @Test
+    public void testW3WCacheFile() throws Exception {
+        Path file = Files.createTempFile("w3w", ".txt");
+        String json = "{\n  \"country\": \"GB\",\n  \"coordinates\": {\"lng\": -3.186103, \"lat\": 55.944656},\n"
+                + "  \"words\": \"pest.round.peanut\"\n}";
+        Files.write(file, ("pest.round.peanut\t" + json.replace('\n', ' ') + "\nbroken.li").getBytes());
+        // nothing listens on port 1, so the locations can only come from the cache file
+        try {
+            W3WUtils wUtils = new W3WUtils("localhost", "1", file);
+            assertEquals(1, wUtils.getCacheSize());
+            Location loc = wUtils.convertW3W("pest.round.peanut");
+            assertNotNull(loc);
+            assertEquals(-3.186103, loc.coordinates.lng, 0.0);
+            assertSame(loc, wUtils.convertW3W("pest.round.peanut"));
+            assertNull(wUtils.convertW3W("not.in.cache"));
+            assertEquals(2, wUtils.getHits());
+            assertEquals(1, wUtils.getMisses());
+            assertEquals(2.0 / 3, wUtils.getHitRate(), 1e-9);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testW3WConcurrentLookups() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        StubServer server = new StubServer(exchange -> {
+            requests.incrementAndGet();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException ignored) {
+            }
+            reply(exchange, "{\"coordinates\": {\"lng\": -3.19, \"lat\": 55.944}, \"words\": \"same.place.again\"}");
+        });
+        Path file = Files.createTempFile("w3w", ".txt");
+        try {
+            W3WUtils wUtils = new W3WUtils("localhost", server.port, file);
+            ArrayList<Shop> shops = new ArrayList<>();
+            ArrayList<Item> menu = new ArrayList<>();
+            menu.add(new Item("item 0", 100));
+            shops.add(new Shop("shop 0", "shop.number.zero", menu));
+            List<OrderRecord> records = new ArrayList<>();
+            for (int i = 0; i < 16; i ++) {
+                OrderRecord record = new OrderRecord(String.format("%08d", i), "2022-01-01", "same.place.again");
+                record.items.add("item 0");
+                records.add(record);
+            }
+            // the orders and the asynchronous lookups all ask for the address while it is being requested
+            List<CompletableFuture<Location>> async = new ArrayList<>();
+            for (int i = 0; i < 4; i ++) {
+                async.add(wUtils.convertW3WAsync("same.place.again"));
+            }
+            try (OrderPipeline pipeline = new OrderPipeline(wUtils, Menus.fromShops(shops), 8)) {
+                assertEquals(16, pipeline.process(records).size());
+            }
+            for (CompletableFuture<Location> loc: async) {
+                assertSame(wUtils.convertW3W("same.place.again"), loc.join());
+            }
+            assertEquals(1, requests.get());
+            assertEquals(1, wUtils.getMisses());
+            assertEquals(1, Files.readAllLines(file).size());
+        } finally {
+            server.close();
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testHttpCache() throws Exception {
+        java.util.Map<String, Integer> downloads = new ConcurrentHashMap<>();
+        java.util.Map<String, Integer> revalidated = new ConcurrentHashMap<>();
+        StubServer server = new StubServer(exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            String etag = "\"" + path.hashCode() + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Last-Modified", "Sat, 01 Jan 2022 00:00:00 GMT");
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                revalidated.merge(path, 1, Integer::sum);
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+            } else {
+                downloads.merge(path, 1, Integer::sum);
+                reply(exchange, "{\"coordinates\": {\"lng\": -3.19, \"lat\": 55.944}, \"words\": \"" + path + "\"}");
+            }
+        });
+        Path directory = Files.createTempDirectory("http-cache");
+        String url = "http://localhost:" + server.port + "/words/a/a/a/details.json";
+        try {
+            HttpCache cache = new HttpCache(directory, false);
+            ServerUtils.setCache(cache);
+            // the first read downloads the file, the second one only asks whether it changed
+            Location first = new ServerUtils(url).readJsonFromUrl(Location.class);
+            Location second = new ServerUtils(url).readJsonFromUrl(Location.class);
+            assertEquals("/words/a/a/a/details.json", first.words);
+            assertEquals(first.words, second.words);
+            assertEquals(1, (int) downloads.get("/words/a/a/a/details.json"));
+            assertEquals(1, (int) revalidated.get("/words/a/a/a/details.json"));
+            assertEquals(1, cache.getMisses());
+            assertEquals(1, cache.getHits());
+            String content = new ServerUtils(url).readStringFromUrl();
+            assertTrue(content.contains("55.944"));
+            assertEquals(first.words, new ServerUtils(url).<Location>readJsonFromUrlAsync(Location.class).join().words);
+            assertEquals(3, cache.getHits());
+
+            // offline, cached files are read without the server and the others are missing
+            server.close();
+            HttpCache offline = new HttpCache(directory, true);
+            ServerUtils.setCache(offline);
+            assertEquals(first.words, new ServerUtils(url).<Location>readJsonFromUrl(Location.class).words);
+            assertNull(new ServerUtils(url.replace("a/a/a", "b/b/b")).readStringFromUrl());
+            assertEquals(1, offline.getHits());
+            assertEquals(0, offline.getMisses());
+        } finally {
+            ServerUtils.setCache(null);
+            server.close();
+            deleteRecursively(directory);
+        }
+    }
+
+    @Test
+    public void testStartupLoader() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        java.util.Map<String, Integer> requests = new ConcurrentHashMap<>();
+        StubServer server = new StubServer(exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            requests.merge(path, 1, Integer::sum);
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+            String body;
+            if (path.equals("/menus/menus.json")) {
+                body = "[{\"name\": \"A\", \"location\": \"a.a.a\", \"menu\": [{\"item\": \"Bagel\", \"pence\": 100}]},"
+                        + "{\"name\": \"B\", \"location\": \"b.b.b\", \"menu\": [{\"item\": \"Salad\", \"pence\": 200}]}]";
+            } else if (path.equals("/buildings/landmarks.geojson")) {
+                body = "{\"type\": \"FeatureCollection\", \"features\": [{\"type\": \"Feature\", "
+                        + "\"properties\": {\"name\": \"L\", \"location\": \"c.c.c\"}, "
+                        + "\"geometry\": {\"type\": \"Point\", \"coordinates\": [-3.19, 55.944]}}]}";
+            } else if (path.startsWith("/buildings/")) {
+                body = "{\"type\": \"FeatureCollection\", \"features\": []}";
+            } else {
+                body = "{\"coordinates\": {\"lng\": -3.19, \"lat\": 55.944}, \"words\": \"" + path + "\"}";
+            }
+            inFlight.decrementAndGet();
+            reply(exchange, body);
+        });
+        try {
+            String port = server.port;
+            W3WUtils wUtils = new W3WUtils("localhost", port);
+            StartupLoader loader = new StartupLoader("localhost", port, wUtils, 3);
+            List<OrderRecord> orders = new ArrayList<>();
+            orders.add(new OrderRecord("aaaa0001", "2022-01-01", "a.a.a"));
+            orders.add(new OrderRecord("bbbb0002", "2022-01-01", "d.d.d"));
+            assertTrue(loader.load(() -> orders));
+
+            assertEquals(2, loader.getMenus().getIndex().getShops().size());
+            assertEquals(0, loader.getNoFlyZones().size());
+            assertEquals("L", loader.getLandmarks().get(0).getStringProperty("name"));
+            assertSame(orders, loader.getOrders());
+            // the shop address a.a.a is also an order address, but it is only requested once
+            assertEquals(4, wUtils.getCacheSize());
+            assertEquals(1, (int) requests.get("/words/a/a/a/details.json"));
+            assertEquals(7, requests.size());
+            assertTrue(maxInFlight.get() > 1);
+            assertTrue(maxInFlight.get() <= 3);
+
+            // a request that throws instead of being sent gives its permit back and fails the load
+            W3WUtils broken = new W3WUtils("localhost", port) {
+                @Override
+                public CompletableFuture<Location> convertW3WAsync(String word) {
+                    if (word.equals("d.d.d")) throw new IllegalStateException("broken address");
+                    return super.convertW3WAsync(word);
+                }
+            };
+            StartupLoader failing = new StartupLoader("localhost", port, broken, 1);
+            assertFalse(failing.load(() -> orders));
+            assertNotNull(failing.getMenus());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testStartupLoaderCachedAddresses() throws Exception {
+        StubServer server = new StubServer(exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+            reply(exchange, path.equals("/menus/menus.json") ? "[]" : "{\"type\": \"FeatureCollection\", \"features\": []}");
+        });
+        try {
+            // every address is already cached, so its request completes in the thread that starts it
+            Location cached = JsonUtils.parse(new ByteArrayInputStream(cachedLocation("a.a.a", -3.19, 55.944)
+                    .split("\t")[1].getBytes()), Location.class);
+            W3WUtils wUtils = new W3WUtils("localhost", server.port) {
+                @Override
+                public CompletableFuture<Location> convertW3WAsync(String word) {
+                    return CompletableFuture.completedFuture(cached);
+                }
+            };
+            List<OrderRecord> orders = new ArrayList<>();
+            for (int i = 0; i < 50000; i ++) {
+                orders.add(new OrderRecord(String.format("%08d", i), "2022-01-01", "order.number." + i));
+            }
+            // one permit, so the addresses queue up behind the files and are all started when they arrive
+            StartupLoader loader = new StartupLoader("localhost", server.port, wUtils, 1);
+            assertTrue(loader.load(() -> orders));
+            assertSame(orders, loader.getOrders());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testJsonAdapters() {
+        String menus = "[{\"name\": \"A\", \"location\": \"a.a.a\", \"extra\": [1, 2],"
+                + " \"menu\": [{\"item\": \"Bagel\", \"pence\": 100}, {\"item\": \"Tea\", \"pence\": 80}]}]";
+        ArrayList<Shop> shops = JsonUtils.parse(new ByteArrayInputStream(menus.getBytes()), JsonUtils.SHOP_LIST);
+        assertEquals(1, shops.size());
+        assertEquals("a.a.a", shops.get(0).location);
+        assertEquals("Tea", shops.get(0).getMenu().get(1).getName());
+        assertEquals(80, (int) shops.get(0).getMenu().get(1).getPrice());
+
+        String details = "{\"country\": \"GB\", \"square\": {\"southwest\": {\"lng\": -3.1862, \"lat\": 55.9446},"
+                + " \"northeast\": {\"lng\": -3.1860, \"lat\": 55.9447}}, \"nearestPlace\": \"Edinburgh\","
+                + " \"coordinates\": {\"lng\": -3.186103, \"lat\": 55.944656}, \"words\": \"pest.round.peanut\","
+                + " \"language\": \"en\", \"map\": null}";
+        Location loc = JsonUtils.parse(new ByteArrayInputStream(details.getBytes()), Location.class);
+        assertEquals(-3.186103, loc.coordinates.lng, 0.0);
+        assertEquals(55.9447, loc.square.northEast.lat, 0.0);
+        assertNull(loc.map);
+        // what is written can be read back
+        Location again = JsonUtils.GSON.fromJson(JsonUtils.GSON.toJson(loc, Location.class), Location.class);
+        assertEquals(loc.words, again.words);
+        assertEquals(loc.square.southWest.lng, again.square.southWest.lng, 0.0);
+        // a location without coordinates is no location
+        assertNull(JsonUtils.parse(new ByteArrayInputStream("{\"words\": \"a.b.c\"}".getBytes()), Location.class));
+
+        FeatureCollection collection = JsonUtils.parse(new ByteArrayInputStream(("{\"type\": \"FeatureCollection\", "
+                + "\"features\": [{\"type\": \"Feature\", \"properties\": {\"name\": \"L\"}, "
+                + "\"geometry\": {\"type\": \"Point\", \"coordinates\": [-3.19, 55.944]}}]}").getBytes()), FeatureCollection.class);
+        List<Feature> features = collection.features();
+        assertEquals("L", features.get(0).getStringProperty("name"));
+        assertTrue(features.get(0).geometry() instanceof Point);
+    }
+
+    @Test
+    public void testMenuIndex() {
+        ArrayList<Shop> shops = new ArrayList<>();
+        for (int s = 0; s < 3; s ++) {
+            ArrayList<Item> menu = new ArrayList<>();
+            for (int i = 0; i < 20; i ++) {
+                menu.add(new Item("item " + s + "-" + i, 100 * s + i));
+            }
+            shops.add(new Shop("shop " + s, "shop.number." + s, menu));
+        }
+        Menus menus = Menus.fromShops(shops);
+
+        MenuIndex.Quote quote = menus.quote(List.of("item 1-3", "item 2-5", "item 1-7"));
+        assertEquals(50 + 103 + 205 + 107, quote.cost);
+        assertArrayEquals(new int[] {1, 2}, quote.getShopIds());
+        assertEquals(List.of(shops.get(1), shops.get(2)), quote.getShops());
+        assertEquals(50 + 103 + 205 + 107, menus.getDeliveryCost("item 1-3", "item 2-5", "item 1-7"));
+        // unknown items, too many items or too many shops
+        assertNull(menus.quote(List.of("item 1-3", "nothing")));
+        assertNull(menus.quote(List.of()));
+        assertNull(menus.quote(List.of("item 0-1", "item 0-2", "item 0-3", "item 0-4", "item 0-5")));
+        assertNull(menus.quote(List.of("item 0-1", "item 1-1", "item 2-1")));
+        assertEquals(-1, menus.getDeliveryCost("item 0-1", "item 1-1", "item 2-1"));
+
+        // quotes don't share state, so orders can be priced in parallel
+        int wrong = IntStream.range(0, 10000).parallel().map(n -> {
+            int a = n % 20;
+            int b = (n / 20) % 20;
+            MenuIndex.Quote q = menus.quote(List.of("item 0-" + a, "item 2-" + b));
+            return q.cost == 50 + a + 200 + b && q.shopMask == 0b101 ? 0 : 1;
+        }).sum();
+        assertEquals(0, wrong);
+    }
+
+    @Test
+    public void testShopNodeId() {
+        Shop shop = new Shop("shop", "shop.number.one", new ArrayList<>());
+        // a shop not added to the map must not be mistaken for Appleton Tower
+        try {
+            shop.getNodeId();
+            fail("the node id of a shop not added to the map was read");
+        } catch (IllegalStateException expected) {
+            // the node id isn't set yet
+        }
+        shop.setNodeId(Map.AT_ID);
+        assertEquals(Map.AT_ID, shop.getNodeId());
+    }
+
+    @Test
+    public void testOrderPipeline() throws Exception {
+        Path file = Files.createTempFile("w3w", ".txt");
+        StringBuilder cached = new StringBuilder();
+        for (int i = 0; i < 50; i ++) {
+            cached.append(cachedLocation("w.w." + i, -3.19, 55.9 + i / 1000.0));
+        }
+        Files.write(file, cached.toString().getBytes());
+        ArrayList<Shop> shops = new ArrayList<>();
+        for (int s = 0; s < 3; s ++) {
+            ArrayList<Item> menu = new ArrayList<>();
+            menu.add(new Item("item " + s, 100 * (s + 1)));
+            shops.add(new Shop("shop " + s, "shop.number." + s, menu));
+        }
+        // nothing listens on port 1, so only the cached addresses can be resolved
+        W3WUtils wUtils = new W3WUtils("localhost", "1", file);
+        List<OrderRecord> records = new ArrayList<>();
+        for (int i = 0; i < 200; i ++) {
+            OrderRecord record = new OrderRecord(String.format("%08d", i), "2022-01-01", "w.w." + (i % 50));
+            record.items.add("item " + (i % 2));
+            records.add(record);
+        }
+        // an unknown address and an order from too many shops are left out, the others go on
+        records.get(10).items.add("item 2");
+        records.get(10).items.add("item 1");
+        records.set(20, new OrderRecord("unknown", "2022-01-01", "not.in.cache"));
+        records.get(20).items.add("item 0");
+        try (OrderPipeline pipeline = new OrderPipeline(wUtils, Menus.fromShops(shops), 4)) {
+            List<OrderPipeline.PricedOrder> priced = pipeline.process(records);
+            assertEquals(198, priced.size());
+            assertEquals(2, pipeline.getFailures());
+            int previous = -1;
+            for (OrderPipeline.PricedOrder order: priced) {
+                int n = Integer.parseInt(order.record.orderNo);
+                assertTrue(n > previous);
+                previous = n;
+                assertEquals(50 + 100 * (n % 2 + 1), order.quote.cost);
+                assertEquals(55.9 + (n % 50) / 1000.0, order.location.coordinates.lat, 1e-12);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testGeoJsonPathWriter() throws Exception {
+        Path file = Files.createTempFile("drone", ".geojson");
+        List<Point> points = new ArrayList<>();
+        LongLat curr = appletonTower;
+        try {
+            try (GeoJsonPathWriter writer = new GeoJsonPathWriter(file)) {
+                // long enough to fill the buffer several times
+                for (int i = 0; i < 10000; i ++) {
+                    writer.add(curr.lng, curr.lat);
+                    points.add(Point.fromLngLat(curr.lng, curr.lat));
+                    curr = curr.nextPosition((i * 70) % 360);
+                }
+                assertEquals(10000, writer.getPoints());
+            }
+            assertEquals(pathJson(points), new String(Files.readAllBytes(file)));
+
+            try (GeoJsonPathWriter writer = new GeoJsonPathWriter(file)) {
+                assertEquals(0, writer.getPoints());
+            }
+            assertEquals(pathJson(new ArrayList<>()), new String(Files.readAllBytes(file)));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testPathRecorder() throws Exception {
+        PathRecorder recorder = new PathRecorder();
+        List<Point> points = new ArrayList<>();
+        LongLat curr = appletonTower;
+        for (int i = 0; i < 1500; i ++) {
+            recorder.add(curr.lng, curr.lat);
+            points.add(Point.fromLngLat(curr.lng, curr.lat));
+            curr = curr.nextPosition((i * 30) % 360);
+        }
+        assertEquals(1500, recorder.size());
+        assertEquals(points.get(700).latitude(), recorder.getLat(700), 0.0);
+        assertEquals(points, recorder.asPoints());
+        LineString line = recorder.toLineString();
+        recorder.add(0, 0);
+        // the LineString doesn't change with the recorder, the view does
+        assertEquals(1500, line.coordinates().size());
+        assertEquals(1501, recorder.asPoints().size());
+
+        recorder.clear();
+        assertEquals(0, recorder.size());
+        for (Point point: points) {
+            recorder.add(point.longitude(), point.latitude());
+        }
+        Path file = Files.createTempFile("drone", ".geojson");
+        try {
+            try (GeoJsonPathWriter writer = new GeoJsonPathWriter(file)) {
+                recorder.writeTo(writer);
+            }
+            assertEquals(pathJson(points), new String(Files.readAllBytes(file)));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testBatchRunAlignsDays() throws Exception {
+        Path directory = Files.createTempDirectory("batch");
+        World world = smallWorld(directory.resolve("w3w.txt"));
+        ConnectionPool pool = new ConnectionPool(() -> recordingConnection(new ConcurrentHashMap<>(), false), 2);
+        DatabaseUtils databaseUtils = new DatabaseUtils("test", pool);
+        LocalDate first = LocalDate.of(2022, 1, 1);
+        LocalDate last = LocalDate.of(2022, 1, 3);
+        try {
+            // a day before the range, a day out of order and a day after the range are left out, the
+            // empty day in the range still gets its file
+            OrderCursor cursor = new OrderCursor(pool.acquire(), orderRows(new String[][]{
+                    {"2021-12-31", "zzzz0000", "deliver.to.one", "item 0"},
+                    {"2022-01-01", "aaaa0001", "deliver.to.one", "item 0"},
+                    {"2022-01-01", "bbbb0002", "deliver.to.two", "item 1"},
+                    {"2022-01-03", "cccc0003", "deliver.to.three", "item 0"},
+                    {"2022-01-02", "eeee0005", "deliver.to.two", "item 0"},
+                    {"2022-01-05", "dddd0004", "deliver.to.one", "item 1"},
+            }));
+            assertEquals(3, BatchApp.run(first, last, cursor, world, databaseUtils, 2, directory));
+            cursor.close();
+            for (String day: new String[]{"01", "02", "03"}) {
+                assertTrue(Files.exists(directory.resolve("drone-" + day + "-01-2022.geojson")));
+            }
+            assertFalse(Files.exists(directory.resolve("drone-31-12-2021.geojson")));
+            assertFalse(Files.exists(directory.resolve("drone-05-01-2022.geojson")));
+
+            // a range ending before the last ordered day
+            cursor = new OrderCursor(pool.acquire(), orderRows(new String[][]{
+                    {"2022-01-01", "aaaa0001", "deliver.to.one", "item 0"},
+                    {"2022-01-03", "cccc0003", "deliver.to.three", "item 0"},
+            }));
+            assertEquals(2, BatchApp.run(first, first.plusDays(1), cursor, world, databaseUtils, 2, directory));
+            cursor.close();
+
+            // a range without any orders
+            cursor = new OrderCursor(pool.acquire(), orderRows(new String[0][]));
+            assertEquals(3, BatchApp.run(first, last, cursor, world, databaseUtils, 2, directory));
+            cursor.close();
+
+            // the days after a failed read of the cursor are not delivered
+            Path broken = Files.createDirectory(directory.resolve("broken"));
+            cursor = new OrderCursor(pool.acquire(), orderRows(new String[][]{
+                    {"2022-01-01", "aaaa0001", "deliver.to.one", "item 0"},
+                    {"2022-01-02", "eeee0005", "deliver.to.two", "item 0"},
+            })) {
+                private int reads = 0;
+
+                @Override
+                public List<OrderRecord> nextDay() throws SQLException {
+                    if (++ reads == 2) throw new SQLException("connection lost");
+                    return super.nextDay();
+                }
+            };
+            assertEquals(1, BatchApp.run(first, last, cursor, world, databaseUtils, 2, broken));
+            cursor.close();
+            assertTrue(Files.exists(broken.resolve("drone-01-01-2022.geojson")));
+            assertFalse(Files.exists(broken.resolve("drone-02-01-2022.geojson")));
+            assertFalse(Files.exists(broken.resolve("drone-03-01-2022.geojson")));
+
+            // a day that throws is left out and the other days still count
+            Path throwing = Files.createDirectory(directory.resolve("throwing"));
+            AtomicInteger opened = new AtomicInteger();
+            DatabaseUtils failingDay = new DatabaseUtils("test", pool) {
+                @Override
+                public DatabaseUtils forDay() {
+                    if (opened.incrementAndGet() == 2) throw new IllegalStateException("no writer for the day");
+                    return super.forDay();
+                }
+            };
+            cursor = new OrderCursor(pool.acquire(), orderRows(new String[0][]));
+            assertEquals(2, BatchApp.run(first, last, cursor, world, failingDay, 1, throwing));
+            cursor.close();
+            assertTrue(Files.exists(throwing.resolve("drone-01-01-2022.geojson")));
+            assertTrue(Files.exists(throwing.resolve("drone-03-01-2022.geojson")));
+            assertTrue(databaseUtils.flush());
+        } finally {
+            databaseUtils.close();
+            deleteRecursively(directory);
+        }
+    }
+
+    @Test
+    public void testDeliveryDaysInParallel() throws Exception {
+        Path sequential = Files.createTempDirectory("sequential");
+        Path parallel = Files.createTempDirectory("parallel");
+        World world = smallWorld(sequential.resolve("w3w.txt"));
+        List<List<String[]>> transactions = new ArrayList<>();
+        ConnectionPool pool = new ConnectionPool(() -> transactionConnection(transactions), 6);
+        DatabaseUtils databaseUtils = new DatabaseUtils("test", pool);
+        String[] addresses = {"deliver.to.one", "deliver.to.two", "deliver.to.three"};
+        List<String[]> rows = new ArrayList<>();
+        for (int day = 1; day <= 4; day ++) {
+            // the order numbers start with the day so every row can be checked against its date
+            for (int i = 0; i < day; i ++) {
+                rows.add(new String[]{"2022-01-0" + day, String.format("%02d%06d", day, i), addresses[(day + i) % 3],
+                        "item " + (i % 2)});
+            }
+        }
+        LocalDate first = LocalDate.of(2022, 1, 1);
+        LocalDate last = LocalDate.of(2022, 1, 4);
+        try {
+            // the days committed when each of the first four days is read from the cursor
+            List<Integer> committed = new ArrayList<>();
+            for (Path directory: new Path[]{sequential, parallel}) {
+                int parallelism = directory == sequential ? 1 : 4;
+                OrderCursor cursor = new OrderCursor(pool.acquire(), orderRows(rows.toArray(new String[0][]))) {
+                    @Override
+                    public List<OrderRecord> nextDay() throws SQLException {
+                        if (parallelism == 1 && committed.size() < 4) {
+                            synchronized (transactions) {
+                                committed.add((int) transactions.stream().map(t -> t.get(0)[1]).distinct().count());
+                            }
+                        }
+                        return super.nextDay();
+                    }
+                };
+                assertEquals(4, BatchApp.run(first, last, cursor, world, databaseUtils, parallelism, directory));
+                cursor.close();
+            }
+            // one day at a time, the next day is only read once the one before is done
+            assertEquals(Arrays.asList(0, 1, 2, 3), committed);
+            // the days don't change each other or the world, so running them at once gives the same paths
+            for (int day = 1; day <= 4; day ++) {
+                String file = DeliveryDay.outputFile(first.plusDays(day - 1), "");
+                assertArrayEquals(Files.readAllBytes(sequential.resolve(file)),
+                        Files.readAllBytes(parallel.resolve(file)));
+            }
+            // every row carries the date of its day, and a transaction never holds the rows of two days
+            int deliveries = 0;
+            synchronized (transactions) {
+                for (List<String[]> transaction: transactions) {
+                    String date = transaction.get(0)[1];
+                    for (String[] row: transaction) {
+                        // the moves back to Appleton Tower belong to no order
+                        if (!row[0].equals("NoOrder")) assertEquals("2022-01-" + row[0].substring(0, 2), row[1]);
+                        assertEquals(date, row[1]);
+                        if (row[2].equals("deliveries")) deliveries ++;
+                    }
+                }
+            }
+            assertEquals(2 * rows.size(), deliveries);
+        } finally {
+            databaseUtils.close();
+            deleteRecursively(sequential);
+            deleteRecursively(parallel);
+        }
+    }
+
+    /**
+     * a web server on a free port of localhost for the tests, every request is answered by one handler on
+     * threads of its own so several requests are answered at the same time
+     */
+    private static class StubServer implements AutoCloseable {
+        private final HttpServer server;
+        private final ExecutorService executor = Executors.newFixedThreadPool(8);
+        /** the port the server listens on */
+        final String port;
+        private boolean stopped = false;
+
+        StubServer(HttpHandler handler) throws IOException {
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.setExecutor(executor);
+            server.createContext("/", handler);
+            server.start();
+            port = String.valueOf(server.getAddress().getPort());
+        }
+
+        /**
+         * stop the server and its threads, it can be stopped early to test what happens without it
+         */
+        @Override
+        public void close() {
+            if (stopped) return;
+            stopped = true;
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * answer a request of a stub server with a body and close the exchange
+     */
+    private static void reply(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes();
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    /**
+     * a line of a w3w cache file holding the location of a w3w address
+     */
+    private static String cachedLocation(String words, double lng, double lat) {
+        return words + "\t{\"coordinates\": {\"lng\": " + lng + ", \"lat\": " + lat + "}, \"words\": \"" + words + "\"}\n";
+    }
+
+    /**
+     * the geojson file GeoJsonUtils.writeGeoJson gives for a path
+     */
+    private static String pathJson(List<Point> points) {
+        return FeatureCollection.fromFeature(Feature.fromGeometry(LineString.fromLngLats(points))).toJson();
+    }
+
+    /**
+     * a world with Appleton Tower and two shops on a map without no-fly zones, the shops and the delivery
+     * addresses deliver.to.one, deliver.to.two and deliver.to.three are decoded from a cache file
+     * @param cacheFile the file the w3w addresses are written to
+     */
+    private static World smallWorld(Path cacheFile) throws IOException {
+        String[] words = {"shop.zero.a", "shop.one.b", "deliver.to.one", "deliver.to.two", "deliver.to.three"};
+        double[][] coordinates = {{-3.1880, 55.9440}, {-3.1860, 55.9452}, {-3.1890, 55.9450}, {-3.1855, 55.9435},
+                {-3.1875, 55.9455}};
+        StringBuilder cached = new StringBuilder();
+        for (int i = 0; i < words.length; i ++) {
+            cached.append(cachedLocation(words[i], coordinates[i][0], coordinates[i][1]));
+        }
+        Files.write(cacheFile, cached.toString().getBytes());
+        // nothing listens on port 1, so only the cached addresses can be resolved
+        W3WUtils wUtils = new W3WUtils("localhost", "1", cacheFile);
+        ArrayList<Shop> shops = new ArrayList<>();
+        for (int s = 0; s < 2; s ++) {
+            ArrayList<Item> menu = new ArrayList<>();
+            menu.add(new Item("item " + s, 100 * (s + 1)));
+            shops.add(new Shop("shop " + s, words[s], menu));
+        }
+        Drone drone = new Drone(LongLat.AT, "Appleton Tower", null);
+        for (Shop shop: shops) {
+            shop.setNodeId(drone.addLocation(shop.name, wUtils.convertW3W(shop.location).coordinates));
+        }
+        drone.initializeGraph(drone.getLocationNames().size());
+        return new World(drone.getMap(), Menus.fromShops(shops), wUtils);
+    }
+
+    /**
+     * delete a directory and everything in it
+     */
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    /**
+     * a result set over rows of deliveryDate, orderNo, deliverTo and item
+     */
+    private static ResultSet orderRows(String[][] rows) {
+        List<String> columns = Arrays.asList("deliveryDate", "orderNo", "deliverTo", "item");
+        int[] row = {-1};
+        return (ResultSet) Proxy.newProxyInstance(
+                AppTest.class.getClassLoader(), new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("next")) return ++ row[0] < rows.length;
+                    if (method.getName().equals("getString")) return rows[row[0]][columns.indexOf((String) args[0])];
+                    return null;
+                });
+    }
+
+    /**
+     * a connection that keeps the rows of every transaction it commits as their order number, delivery date
+     * and table, the parameters of each statement are recorded until it is added to the batch
+     * @param transactions the committed transactions, locked while one is added
+     */
+    private static Connection transactionConnection(List<List<String[]>> transactions) {
+        List<String[]> pending = new ArrayList<>();
+        return (Connection) Proxy.newProxyInstance(AppTest.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (connection, method, args) -> {
+                    switch (method.getName()) {
+                        case "prepareStatement":
+                            String table = ((String) args[0]).contains("deliveries") ? "deliveries" : "flightpath";
+                            Object[] parameters = new Object[8];
+                            return Proxy.newProxyInstance(AppTest.class.getClassLoader(),
+                                    new Class<?>[]{PreparedStatement.class}, (statement, call, values) -> {
+                                        if (call.getName().startsWith("set")) {
+                                            parameters[(int) values[0]] = values[1];
+                                        } else if (call.getName().equals("addBatch")) {
+                                            String date = table.equals("deliveries") ? String.valueOf(parameters[4])
+                                                    : String.valueOf(parameters[7]);
+                                            pending.add(new String[]{(String) parameters[1], date, table});
+                                        } else if (call.getName().equals("executeBatch")) {
+                                            return new int[0];
+                                        }
+                                        return call.getReturnType() == boolean.class ? Boolean.FALSE : null;
+                                    });
+                        case "commit":
+                            synchronized (transactions) {
+                                if (!pending.isEmpty()) transactions.add(new ArrayList<>(pending));
+                            }
+                            pending.clear();
+                            return null;
+                        case "rollback":
+                            pending.clear();
+                            return null;
+                        case "isValid":
+                            return true;
+                        default:
+                            return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+                    }
+                });
+    }
+
+    /**
+     * a connection that only counts the calls made to it and to its statements, it fails the validity check
+     * if the calls already contain "invalid"
+     * @param failBatches whether executing a batch throws an SQLException
+     */
+    private static Connection recordingConnection(java.util.Map<String, Integer> calls, boolean failBatches) {
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+                calls.merge(method.getName(), 1, Integer::sum);
+                switch (method.getName()) {
+                    case "prepareStatement":
+                        return Proxy.newProxyInstance(getClass().getClassLoader(),
+                                new Class<?>[]{PreparedStatement.class}, this);
+                    case "executeBatch":
+                        if (failBatches) throw new SQLException("batch failed");
+                        return new int[0];
+                    case "isValid":
+                        return !calls.containsKey("invalid");
+                    default:
+                        return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(AppTest.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, handler);
+    }
+
     private static boolean checkNFZ(LongLat p1, LongLat p2, List<Polygon> noFlyZones) {
         Point point1 = Point.fromLngLat(p1.lng, p1.lat);
         Point point2 = Point.fromLngLat(p2.lng, p2.lat);
@@ -0,0 +1,47 @@
+package uk.ac.ed.inf;
+
+/**
+ * Micro benchmark comparing the trigonometric computation of the next position with the
+ * precomputed direction table in LongLat, run it with its main method
+ */
+public class NextPositionBenchmark {
+    /** number of full sweeps over the 36 legal angles per timed round */
+    private static final int SWEEPS = 1_000_000;
+
+    public static void main(String[] args) {
+        double[] out = new double[2];
+        for (int round = 0; round < 5; round ++) {
+            double sum = 0;
+            long start = System.nanoTime();
+            for (int s = 0; s < SWEEPS; s ++) {
+                for (int angle = 0; angle <= 350; angle += 10) {
+                    sum += LongLat.AT.lng + LongLat.distance*Math.cos(Math.toRadians(angle));
+                    sum += LongLat.AT.lat + LongLat.distance*Math.sin(Math.toRadians(angle));
+                }
+            }
+            long trig = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int s = 0; s < SWEEPS; s ++) {
+                for (int angle = 0; angle <= 350; angle += 10) {
+                    LongLat.nextPosition(LongLat.AT.lng, LongLat.AT.lat, angle, out);
+                    sum += out[0] + out[1];
+                }
+            }
+            long table = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int s = 0; s < SWEEPS; s ++) {
+                for (int angle = 0; angle <= 350; angle += 10) {
+                    LongLat next = LongLat.AT.nextPosition(angle);
+                    sum += next.lng + next.lat;
+                }
+            }
+            long object = System.nanoTime() - start;
+
+            double moves = (double) SWEEPS * 36;
+            System.out.printf("round %d: trig %.2f ns/move, table %.2f ns/move, table with LongLat %.2f ns/move (%s)\n",
+                    round, trig / moves, table / moves, object / moves, sum > 0 ? "+" : "-");
+        }
+    }
+}
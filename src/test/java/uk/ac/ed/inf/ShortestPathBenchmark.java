@@ -0,0 +1,52 @@
+package uk.ac.ed.inf;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Benchmark of Map.shortestPath on graphs of 50 to 2000 random locations inside the confinement
+ * area, run it with its main method. Compares one thread with all available processors and checks
+ * that both give the same graph and next arrays
+ */
+public class ShortestPathBenchmark {
+    public static void main(String[] args) {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        System.out.printf("locations, 1 thread ms, %d threads ms, identical\n", threads);
+        for (int n: new int[] {50, 100, 250, 500, 1000, 2000}) {
+            Map sequential = randomMap(n);
+            sequential.setParallelism(1);
+            Map parallel = randomMap(n);
+            parallel.setParallelism(threads);
+
+            long start = System.nanoTime();
+            sequential.shortestPath();
+            long sequentialTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            parallel.shortestPath();
+            long parallelTime = System.nanoTime() - start;
+
+            boolean identical = Arrays.equals(sequential.graph, parallel.graph) && Arrays.equals(sequential.next, parallel.next);
+            System.out.printf("%d, %.1f, %.1f, %b\n", n, sequentialTime / 1e6, parallelTime / 1e6, identical);
+        }
+    }
+
+    /**
+     * create a map of n locations spread over the confinement area with its graph populated
+     */
+    private static Map randomMap(int n) {
+        Random random = new Random(n);
+        Map map = new Map();
+        for (int i = 1; i < n; i ++) {
+            double lng = LongLat.FH.lng + random.nextDouble() * (LongLat.BBS.lng - LongLat.FH.lng);
+            double lat = LongLat.BBS.lat + random.nextDouble() * (LongLat.FH.lat - LongLat.BBS.lat);
+            map.addLocation("location " + i, new LongLat(lng, lat));
+        }
+        map.size = n;
+        map.graph = new int[n * n];
+        map.next = new int[n * n];
+        map.intersect = new BitSet(n * n);
+        map.populateGraph();
+        return map;
+    }
+}